@@ -16,8 +16,8 @@
 
 package com.strobel.assembler;
 
-import com.strobel.assembler.ir.ConstantPool;
 import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ClassFileReader;
 import com.strobel.assembler.metadata.ClasspathTypeLoader;
 import com.strobel.assembler.metadata.ITypeLoader;
 import com.strobel.core.StringComparison;
@@ -28,9 +28,11 @@ import com.strobel.io.PathHelper;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,8 +40,9 @@ public class InputTypeLoader implements ITypeLoader {
     private final static Logger LOG = Logger.getLogger(InputTypeLoader.class.getSimpleName());
 
     private final ITypeLoader _defaultTypeLoader;
-    private final Map<String, LinkedHashSet<File>> _packageLocations;
+    private final ConcurrentMap<String, Set<File>> _packageLocations;
     private final Map<String, File> _knownFiles;
+    private final TypeLocationIndex _locationIndex;
 
     public InputTypeLoader() {
         this(new ClasspathTypeLoader());
@@ -47,8 +50,39 @@ public class InputTypeLoader implements ITypeLoader {
 
     public InputTypeLoader(final ITypeLoader defaultTypeLoader) {
         _defaultTypeLoader = VerifyArgument.notNull(defaultTypeLoader, "defaultTypeLoader");
-        _packageLocations = new LinkedHashMap<>();
-        _knownFiles = new LinkedHashMap<>();
+        _packageLocations = new ConcurrentHashMap<>();
+        _knownFiles = new ConcurrentHashMap<>();
+        _locationIndex = null;
+    }
+
+    /**
+     * Creates a type loader which remembers where it found each class file in {@code locationIndexFile}.
+     * If the index exists, types recorded there by an earlier run are loaded straight from their files
+     * (after checking that each file's size and modification time are unchanged) without probing the
+     * file system.  Call {@link #saveLocationIndex()} to write back any locations found in this run.
+     */
+    public InputTypeLoader(final ITypeLoader defaultTypeLoader, final File locationIndexFile) {
+        _defaultTypeLoader = VerifyArgument.notNull(defaultTypeLoader, "defaultTypeLoader");
+        _packageLocations = new ConcurrentHashMap<>();
+        _knownFiles = new ConcurrentHashMap<>();
+        _locationIndex = new TypeLocationIndex(VerifyArgument.notNull(locationIndexFile, "locationIndexFile"));
+    }
+
+    /**
+     * Writes the locations found during this run to the location index, if this loader has one and
+     * anything has changed.  Failures are logged; a missing or stale index only costs speed.
+     */
+    public void saveLocationIndex() {
+        if (_locationIndex == null) {
+            return;
+        }
+
+        try {
+            _locationIndex.save();
+        }
+        catch (final IOException e) {
+            LOG.log(Level.WARNING, "Failed to save type location index.", e);
+        }
     }
 
     @Override
@@ -76,6 +110,10 @@ public class InputTypeLoader implements ITypeLoader {
         String internalName = (hasExtension ? typeNameOrPath.substring(0, typeNameOrPath.length() - 6)
                                             : typeNameOrPath.replace('.', '/'));
 
+        if (_locationIndex != null && tryLoadFromLocationIndex(internalName, !hasExtension, buffer)) {
+            return true;
+        }
+
         if (tryLoadTypeFromName(internalName, buffer)) {
             return true;
         }
@@ -111,6 +149,42 @@ public class InputTypeLoader implements ITypeLoader {
         return false;
     }
 
+    private boolean tryLoadFromLocationIndex(final String internalName, final boolean tryNestedNames, final Buffer buffer) {
+        //
+        // Try the same names, in the same order, as the probing below would; but here, a miss is
+        // only a map lookup.
+        //
+
+        String name = internalName;
+
+        while (true) {
+            final File file = _locationIndex.tryLoad(name, buffer);
+
+            if (file != null) {
+                if (name.equals(ClassFileReader.readInternalName(buffer))) {
+                    _knownFiles.put(name, file);
+
+                    if (LOG.isLoggable(Level.FINE)) {
+                        LOG.fine("Type loaded from " + file.getAbsolutePath() + " (indexed).");
+                    }
+
+                    return true;
+                }
+
+                _locationIndex.remove(name);
+                buffer.reset(0);
+            }
+
+            final int lastDelimiter = name.lastIndexOf('/');
+
+            if (!tryNestedNames || lastDelimiter < 0) {
+                return false;
+            }
+
+            name = name.substring(0, lastDelimiter) + "$" + name.substring(lastDelimiter + 1);
+        }
+    }
+
     private boolean tryLoadTypeFromName(final String internalName, final Buffer buffer) {
         if (tryLoadFromKnownLocation(internalName, buffer)) {
             return true;
@@ -157,7 +231,7 @@ public class InputTypeLoader implements ITypeLoader {
         }
 
         while (true) {
-            final LinkedHashSet<File> directories = _packageLocations.get(head);
+            final Set<File> directories = _packageLocations.get(head);
 
             if (directories != null) {
                 for (final File directory : directories) {
@@ -221,7 +295,7 @@ public class InputTypeLoader implements ITypeLoader {
             return false;
         }
 
-        final String actualName = getInternalNameFromClassFile(buffer);
+        final String actualName = ClassFileReader.readInternalName(buffer);
 
         final String name = trustName ? (internalName != null ? internalName : actualName)
                                       : actualName;
@@ -250,7 +324,13 @@ public class InputTypeLoader implements ITypeLoader {
 
             registerKnownPath(packageName, file.getParentFile(), pathMatchesName);
 
-            _knownFiles.put(actualName, file);
+            if (actualName != null) {
+                _knownFiles.put(actualName, file);
+
+                if (_locationIndex != null) {
+                    _locationIndex.record(actualName, file);
+                }
+            }
 
             if (LOG.isLoggable(Level.FINE)) {
                 LOG.fine("Type loaded from " + file.getAbsolutePath() + ".");
@@ -268,11 +348,7 @@ public class InputTypeLoader implements ITypeLoader {
             return;
         }
 
-        LinkedHashSet<File> directories = _packageLocations.get(packageName);
-
-        if (directories == null) {
-            _packageLocations.put(packageName, directories = new LinkedHashSet<>());
-        }
+        Set<File> directories = getPackageLocations(packageName);
 
         if (!directories.add(directory) || !recursive) {
             return;
@@ -301,11 +377,7 @@ public class InputTypeLoader implements ITypeLoader {
                 currentPackage = currentPackage.substring(0, delimiterIndex);
                 currentDirectory = currentDirectory.getParentFile();
 
-                directories = _packageLocations.get(currentPackage);
-
-                if (directories == null) {
-                    _packageLocations.put(currentPackage, directories = new LinkedHashSet<>());
-                }
+                directories = getPackageLocations(currentPackage);
 
                 if (!directories.add(currentDirectory)) {
                     break;
@@ -316,24 +388,19 @@ public class InputTypeLoader implements ITypeLoader {
         }
     }
 
-    private static String getInternalNameFromClassFile(final Buffer b) {
-        final long magic = b.readInt() & 0xFFFFFFFFL;
-
-        if (magic != 0xCAFEBABEL) {
-            return null;
-        }
-
-        b.readUnsignedShort(); // minor version
-        b.readUnsignedShort(); // major version
-
-        final ConstantPool constantPool = ConstantPool.read(b);
+    private Set<File> getPackageLocations(final String packageName) {
+        Set<File> directories = _packageLocations.get(packageName);
 
-        b.readUnsignedShort(); // access flags
+        if (directories == null) {
+            final Set<File> newDirectories = new CopyOnWriteArraySet<>();
 
-        final ConstantPool.TypeInfoEntry thisClass = constantPool.getEntry(b.readUnsignedShort());
+            directories = _packageLocations.putIfAbsent(packageName, newDirectories);
 
-        b.position(0);
+            if (directories == null) {
+                directories = newDirectories;
+            }
+        }
 
-        return thisClass.getName();
+        return directories;
     }
 }
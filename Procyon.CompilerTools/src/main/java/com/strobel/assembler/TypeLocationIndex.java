@@ -0,0 +1,243 @@
+/*
+ * TypeLocationIndex.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler;
+
+import com.strobel.assembler.metadata.Buffer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent map from internal type names to the class files {@link InputTypeLoader} found them
+ * in.  Each entry remembers the file's size and modification time; an entry is only trusted while
+ * both still match, so a stale index costs one failed lookup per changed type and nothing more.
+ */
+final class TypeLocationIndex {
+    private final static Logger LOG = Logger.getLogger(TypeLocationIndex.class.getSimpleName());
+
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    private final static String HEADER = "# Procyon type location index v1";
+
+    private final Path _indexFile;
+    private final Map<String, Location> _locations;
+    private volatile boolean _isDirty;
+
+    TypeLocationIndex(final File indexFile) {
+        _indexFile = indexFile.toPath();
+        _locations = new ConcurrentHashMap<>();
+        load();
+    }
+
+    final int size() {
+        return _locations.size();
+    }
+
+    /**
+     * Loads {@code internalName} from its recorded location, provided the file there has not
+     * changed since it was recorded.  Returns the file on success; otherwise, forgets the entry
+     * and returns {@code null}.
+     */
+    final File tryLoad(final String internalName, final Buffer buffer) {
+        final Location location = _locations.get(internalName);
+
+        if (location == null) {
+            return null;
+        }
+
+        final Path path = location.file.toPath();
+
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            if (attributes.isRegularFile() &&
+                attributes.size() == location.size &&
+                attributes.lastModifiedTime().toMillis() == location.lastModified &&
+                location.size <= Integer.MAX_VALUE) {
+
+                try (final InputStream in = Files.newInputStream(path)) {
+                    int remainingBytes = (int) location.size;
+
+                    buffer.reset(remainingBytes);
+
+                    while (remainingBytes > 0) {
+                        final int bytesRead = in.read(buffer.array(), (int) location.size - remainingBytes, remainingBytes);
+
+                        if (bytesRead < 0) {
+                            break;
+                        }
+
+                        remainingBytes -= bytesRead;
+                    }
+
+                    if (remainingBytes == 0) {
+                        return location.file;
+                    }
+                }
+            }
+        }
+        catch (final NoSuchFileException ignored) {
+        }
+        catch (final IOException e) {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.log(Level.FINE, "Failed to read indexed location of " + internalName + ".", e);
+            }
+        }
+
+        remove(internalName);
+        buffer.reset(0);
+        return null;
+    }
+
+    final void record(final String internalName, final File file) {
+        final File absoluteFile = file.getAbsoluteFile();
+        final Location existing = _locations.get(internalName);
+
+        if (existing != null && existing.file.equals(absoluteFile)) {
+            return;
+        }
+
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(absoluteFile.toPath(), BasicFileAttributes.class);
+
+            _locations.put(
+                internalName,
+                new Location(absoluteFile, attributes.size(), attributes.lastModifiedTime().toMillis())
+            );
+
+            _isDirty = true;
+        }
+        catch (final IOException ignored) {
+        }
+    }
+
+    final void remove(final String internalName) {
+        if (_locations.remove(internalName) != null) {
+            _isDirty = true;
+        }
+    }
+
+    /**
+     * Writes the index back to disk if anything changed since it was loaded.  The new index is
+     * written beside the old one and moved into place, so a concurrent or interrupted run never
+     * sees a partial file.
+     */
+    final void save() throws IOException {
+        if (!_isDirty) {
+            return;
+        }
+
+        _isDirty = false;
+
+        final Path directory = _indexFile.toAbsolutePath().getParent();
+
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+
+        final Path temporaryFile = Files.createTempFile(directory, _indexFile.getFileName().toString(), ".tmp");
+
+        try {
+            try (final BufferedWriter writer = Files.newBufferedWriter(temporaryFile, UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+
+                for (final Map.Entry<String, Location> entry : _locations.entrySet()) {
+                    final Location location = entry.getValue();
+
+                    writer.write(entry.getKey());
+                    writer.write('\t');
+                    writer.write(Long.toString(location.size));
+                    writer.write('\t');
+                    writer.write(Long.toString(location.lastModified));
+                    writer.write('\t');
+                    writer.write(location.file.getPath());
+                    writer.newLine();
+                }
+            }
+
+            Files.move(temporaryFile, _indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (final IOException e) {
+            _isDirty = true;
+            throw e;
+        }
+        finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(_indexFile)) {
+            return;
+        }
+
+        try (final BufferedReader reader = Files.newBufferedReader(_indexFile, UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                //
+                // Written by some other version; start from scratch and overwrite it on save.
+                //
+                _isDirty = true;
+                return;
+            }
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split("\t", 4);
+
+                if (parts.length != 4) {
+                    _isDirty = true;
+                    continue;
+                }
+
+                try {
+                    _locations.put(
+                        parts[0],
+                        new Location(new File(parts[3]), Long.parseLong(parts[1]), Long.parseLong(parts[2]))
+                    );
+                }
+                catch (final NumberFormatException ignored) {
+                    _isDirty = true;
+                }
+            }
+        }
+        catch (final IOException e) {
+            LOG.log(Level.WARNING, "Failed to read type location index: " + _indexFile, e);
+            _locations.clear();
+        }
+    }
+
+    private final static class Location {
+        final File file;
+        final long size;
+        final long lastModified;
+
+        Location(final File file, final long size, final long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -28,8 +28,12 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.regex.Pattern;
@@ -73,63 +77,59 @@ public final class ControlFlowGraph {
     }
 
     public final void computeDominance(final BooleanBox cancelled) {
-        final ControlFlowNode entryPoint = getEntryPoint();
-
-        entryPoint.setImmediateDominator(entryPoint);
-
-        final BooleanBox changed = new BooleanBox(true);
-
-        while (changed.get()) {
-            changed.set(false);
-            resetVisited();
+        //
+        // Cooper, Harvey, and Kennedy, "A Simple, Fast Dominance Algorithm".  Nodes are numbered
+        // in post-order, and the dominator tree is kept in an int array indexed by those numbers,
+        // so finding the common dominator of two nodes is a walk up the array rather than a set
+        // of the nodes on one path.  On reducible graphs, which is nearly everything javac emits,
+        // a pass over the nodes in reverse post-order settles every node; a second pass confirms it.
+        //
+        final ControlFlowNode[] postOrder = computePostOrder();
+        final int count = postOrder.length;
+        final int entry = count - 1;
+        final int[][] predecessors = computePredecessors(postOrder);
+        final int[] dominators = new int[count];
+
+        Arrays.fill(dominators, -1);
+        dominators[entry] = entry;
+
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
 
             if (cancelled.get()) {
                 throw new CancellationException();
             }
 
-            entryPoint.traversePreOrder(
-                new Function<ControlFlowNode, Iterable<ControlFlowNode>>() {
-                    @Override
-                    public final Iterable<ControlFlowNode> apply(final ControlFlowNode input) {
-                        return input.getSuccessors();
-                    }
-                },
-                new Block<ControlFlowNode>() {
-                    @Override
-                    public final void accept(final ControlFlowNode b) {
-                        if (b == entryPoint) {
-                            return;
-                        }
+            for (int b = entry - 1; b >= 0; b--) {
+                final int[] p = predecessors[b];
 
-                        ControlFlowNode newImmediateDominator = null;
+                int newDominator = -1;
 
-                        for (final ControlFlowNode p : b.getPredecessors()) {
-                            if (p.isVisited() && p != b) {
-                                newImmediateDominator = p;
-                                break;
-                            }
-                        }
-
-                        if (newImmediateDominator == null) {
-                            throw new IllegalStateException("Could not compute new immediate dominator!");
-                        }
+                for (final int predecessor : p) {
+                    if (dominators[predecessor] != -1) {
+                        newDominator = newDominator == -1 ? predecessor
+                                                          : intersect(dominators, predecessor, newDominator);
+                    }
+                }
 
-                        for (final ControlFlowNode p : b.getPredecessors()) {
-                            if (p != b && p.getImmediateDominator() != null) {
-                                newImmediateDominator = findCommonDominator(p, newImmediateDominator);
-                            }
-                        }
+                if (newDominator == -1) {
+                    throw new IllegalStateException("Could not compute new immediate dominator!");
+                }
 
-                        if (b.getImmediateDominator() != newImmediateDominator) {
-                            b.setImmediateDominator(newImmediateDominator);
-                            changed.set(true);
-                        }
-                    }
+                if (dominators[b] != newDominator) {
+                    dominators[b] = newDominator;
+                    changed = true;
                 }
-            );
+            }
         }
 
-        entryPoint.setImmediateDominator(null);
+        postOrder[entry].setImmediateDominator(null);
+
+        for (int b = entry - 1; b >= 0; b--) {
+            postOrder[b].setImmediateDominator(postOrder[dominators[b]]);
+        }
 
         for (final ControlFlowNode node : _nodes) {
             final ControlFlowNode immediateDominator = node.getImmediateDominator();
@@ -138,6 +138,57 @@ public final class ControlFlowGraph {
                 immediateDominator.getDominatorTreeChildren().add(node);
             }
         }
+
+        numberDominatorTree();
+    }
+
+    /**
+     * Numbers the dominator tree in pre- and post-order, so that {@link ControlFlowNode#dominates}
+     * can compare the intervals of two nodes instead of walking up the tree.
+     */
+    private void numberDominatorTree() {
+        final ControlFlowNode.DominatorTreeNumbering numbering = new ControlFlowNode.DominatorTreeNumbering();
+
+        ControlFlowNode[] nodes = new ControlFlowNode[16];
+        int[] preOrder = new int[16];
+        int[] nextChild = new int[16];
+
+        int preOrderCount = 0;
+        int postOrderCount = 0;
+        int depth = 0;
+
+        nodes[0] = getEntryPoint();
+        preOrder[0] = preOrderCount++;
+        nextChild[0] = 0;
+        nodes[0].setDominatorTreeInterval(numbering, preOrder[0], -1);
+
+        while (depth >= 0) {
+            final ControlFlowNode node = nodes[depth];
+            final List<ControlFlowNode> children = node.getDominatorTreeChildren();
+
+            if (nextChild[depth] < children.size()) {
+                final ControlFlowNode child = children.get(nextChild[depth]++);
+
+                if (child.getDominatorTreeNumbering() == numbering) {
+                    continue;
+                }
+
+                if (++depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    preOrder = Arrays.copyOf(preOrder, depth * 2);
+                    nextChild = Arrays.copyOf(nextChild, depth * 2);
+                }
+
+                nodes[depth] = child;
+                preOrder[depth] = preOrderCount++;
+                nextChild[depth] = 0;
+                child.setDominatorTreeInterval(numbering, preOrder[depth], -1);
+            }
+            else {
+                node.setDominatorTreeInterval(numbering, preOrder[depth], postOrderCount++);
+                nodes[depth--] = null;
+            }
+        }
     }
 
     public final void computeDominanceFrontier() {
@@ -175,6 +226,114 @@ public final class ControlFlowGraph {
         );
     }
 
+    /**
+     * Returns the nodes reachable from the entry point in post-order, marking each of them as
+     * visited.  The traversal keeps its own stack, so deep graphs cannot overflow the call stack.
+     */
+    private ControlFlowNode[] computePostOrder() {
+        resetVisited();
+
+        final ControlFlowNode entryPoint = getEntryPoint();
+
+        ControlFlowNode[] postOrder = new ControlFlowNode[_nodes.size()];
+        ControlFlowNode[] nodeStack = new ControlFlowNode[_nodes.size()];
+        Iterator<?>[] iteratorStack = new Iterator<?>[_nodes.size()];
+
+        int count = 0;
+        int depth = 0;
+
+        entryPoint.setVisited(true);
+        nodeStack[0] = entryPoint;
+        iteratorStack[0] = entryPoint.getSuccessors().iterator();
+
+        while (depth >= 0) {
+            final Iterator<?> iterator = iteratorStack[depth];
+
+            if (iterator.hasNext()) {
+                final ControlFlowNode successor = (ControlFlowNode) iterator.next();
+
+                if (successor.isVisited()) {
+                    continue;
+                }
+
+                successor.setVisited(true);
+
+                if (++depth == nodeStack.length) {
+                    //
+                    // Successors are not required to be in the node list, so the graph may
+                    // have more reachable nodes than we planned for.
+                    //
+                    nodeStack = Arrays.copyOf(nodeStack, depth * 2);
+                    iteratorStack = Arrays.copyOf(iteratorStack, depth * 2);
+                }
+
+                nodeStack[depth] = successor;
+                iteratorStack[depth] = successor.getSuccessors().iterator();
+            }
+            else {
+                if (count == postOrder.length) {
+                    postOrder = Arrays.copyOf(postOrder, count * 2);
+                }
+
+                postOrder[count++] = nodeStack[depth];
+                nodeStack[depth] = null;
+                iteratorStack[depth--] = null;
+            }
+        }
+
+        return count == postOrder.length ? postOrder : Arrays.copyOf(postOrder, count);
+    }
+
+    /**
+     * Returns the post-order numbers of each node's reachable predecessors, not counting itself.
+     */
+    private static int[][] computePredecessors(final ControlFlowNode[] postOrder) {
+        final Map<ControlFlowNode, Integer> numbers = new IdentityHashMap<>(postOrder.length);
+
+        for (int i = 0; i < postOrder.length; i++) {
+            numbers.put(postOrder[i], i);
+        }
+
+        final int[][] predecessors = new int[postOrder.length][];
+
+        int[] buffer = new int[16];
+
+        for (int i = 0; i < postOrder.length; i++) {
+            int count = 0;
+
+            for (final ControlFlowNode p : postOrder[i].getPredecessors()) {
+                final Integer number = numbers.get(p);
+
+                if (number != null && number != i) {
+                    if (count == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, count * 2);
+                    }
+                    buffer[count++] = number;
+                }
+            }
+
+            predecessors[i] = Arrays.copyOf(buffer, count);
+        }
+
+        return predecessors;
+    }
+
+    private static int intersect(final int[] dominators, final int a, final int b) {
+        int finger1 = a;
+        int finger2 = b;
+
+        while (finger1 != finger2) {
+            while (finger1 < finger2) {
+                finger1 = dominators[finger1];
+            }
+            while (finger2 < finger1) {
+                finger2 = dominators[finger2];
+            }
+        }
+
+        return finger1;
+    }
+
     public static ControlFlowNode findCommonDominator(final ControlFlowNode a, final ControlFlowNode b) {
         final Set<ControlFlowNode> path1 = new LinkedHashSet<>();
 
@@ -0,0 +1,129 @@
+/*
+ * ControlFlowGraphCache.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.flowanalysis;
+
+import com.strobel.assembler.ir.ExceptionHandler;
+import com.strobel.assembler.ir.FlowControl;
+import com.strobel.assembler.ir.Instruction;
+import com.strobel.assembler.ir.OpCode;
+import com.strobel.core.VerifyArgument;
+
+import java.util.List;
+
+/**
+ * Holds the control flow graph of a method body while it is being rewritten, so that passes which
+ * each need the graph (with dominance and dominance frontiers computed) can share one instead of
+ * building their own.  Passes that edit the instructions or exception handlers report what they
+ * changed; edits which cannot change the shape of the graph keep it, and anything else causes the
+ * graph to be rebuilt the next time it is requested.
+ * <p>
+ * Graphs handed out by this cache are shared, so callers must not modify them.
+ */
+public final class ControlFlowGraphCache {
+    private ControlFlowGraph _graph;
+    private List<Instruction> _instructions;
+    private int _instructionCount;
+    private ExceptionHandler[] _exceptionHandlers;
+    private int _buildCount;
+
+    /**
+     * Returns the graph of {@code instructions} and {@code exceptionHandlers}, with dominance and
+     * dominance frontiers computed.  The graph is built only if no graph is cached, if it was built
+     * from different lists, or if a change since then may have altered it.
+     */
+    public final ControlFlowGraph get(final List<Instruction> instructions, final List<ExceptionHandler> exceptionHandlers) {
+        VerifyArgument.notNull(instructions, "instructions");
+        VerifyArgument.notNull(exceptionHandlers, "exceptionHandlers");
+
+        if (_graph != null && isCurrent(instructions, exceptionHandlers)) {
+            return _graph;
+        }
+
+        final ControlFlowGraph graph = ControlFlowGraphBuilder.build(instructions, exceptionHandlers);
+
+        graph.computeDominance();
+        graph.computeDominanceFrontier();
+
+        _graph = graph;
+        _instructions = instructions;
+        _instructionCount = instructions.size();
+        _exceptionHandlers = exceptionHandlers.toArray(new ExceptionHandler[exceptionHandlers.size()]);
+        _buildCount++;
+
+        return graph;
+    }
+
+    /**
+     * Returns how many graphs this cache has built.
+     */
+    public final int getBuildCount() {
+        return _buildCount;
+    }
+
+    /**
+     * Discards the cached graph.  Call this after any change to the instructions or exception
+     * handlers which is not reported through {@link #opCodeChanged}.
+     */
+    public final void invalidate() {
+        _graph = null;
+        _instructions = null;
+        _exceptionHandlers = null;
+    }
+
+    /**
+     * Records that {@code instruction}, which used to be {@code oldOpCode}, has been given a new
+     * opcode (and possibly new operands).  The cached graph is kept if neither opcode affects
+     * control flow, e.g., when a load is replaced with a {@code nop}.
+     */
+    public final void opCodeChanged(final Instruction instruction, final OpCode oldOpCode) {
+        VerifyArgument.notNull(instruction, "instruction");
+        VerifyArgument.notNull(oldOpCode, "oldOpCode");
+
+        if (affectsControlFlow(oldOpCode) || affectsControlFlow(instruction.getOpCode())) {
+            invalidate();
+        }
+    }
+
+    private boolean isCurrent(final List<Instruction> instructions, final List<ExceptionHandler> exceptionHandlers) {
+        if (instructions != _instructions ||
+            instructions.size() != _instructionCount ||
+            exceptionHandlers.size() != _exceptionHandlers.length) {
+
+            return false;
+        }
+
+        //
+        // Handler order matters; the builder creates handler nodes in list order.
+        //
+        for (int i = 0; i < _exceptionHandlers.length; i++) {
+            if (exceptionHandlers.get(i) != _exceptionHandlers[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean affectsControlFlow(final OpCode opCode) {
+        switch (opCode.getOperandType()) {
+            case BranchTarget:
+            case BranchTargetWide:
+            case Switch:
+                return true;
+        }
+
+        final FlowControl flowControl = opCode.getFlowControl();
+
+        return flowControl != FlowControl.Next &&
+               flowControl != FlowControl.Call;
+    }
+}
@@ -50,6 +50,9 @@ public final class ControlFlowNode implements Comparable<ControlFlowNode> {
     private boolean _visited;
     private ControlFlowNode _copyFrom;
     private ControlFlowNode _immediateDominator;
+    private DominatorTreeNumbering _dominatorTreeNumbering;
+    private int _dominatorTreePreOrder;
+    private int _dominatorTreePostOrder;
     private Instruction _start;
     private Instruction _end;
     private ExceptionHandler _exceptionHandler;
@@ -162,6 +165,27 @@ public final class ControlFlowNode implements Comparable<ControlFlowNode> {
 
     public final void setImmediateDominator(final ControlFlowNode immediateDominator) {
         _immediateDominator = immediateDominator;
+
+        final DominatorTreeNumbering numbering = _dominatorTreeNumbering;
+
+        if (numbering != null) {
+            //
+            // The tree has changed shape, so the intervals of every node numbered along with this
+            // one may be wrong now.
+            //
+            numbering.isValid = false;
+            _dominatorTreeNumbering = null;
+        }
+    }
+
+    final DominatorTreeNumbering getDominatorTreeNumbering() {
+        return _dominatorTreeNumbering;
+    }
+
+    final void setDominatorTreeInterval(final DominatorTreeNumbering numbering, final int preOrder, final int postOrder) {
+        _dominatorTreeNumbering = numbering;
+        _dominatorTreePreOrder = preOrder;
+        _dominatorTreePostOrder = postOrder;
     }
 
     public final void setStart(final Instruction start) {
@@ -242,36 +266,98 @@ public final class ControlFlowNode implements Comparable<ControlFlowNode> {
         final Function<ControlFlowNode, Iterable<ControlFlowNode>> children,
         final Block<ControlFlowNode> visitAction) {
 
-        if (_visited) {
-            return;
-        }
-
-        _visited = true;
-        visitAction.accept(this);
-
-        for (final ControlFlowNode child : children.apply(this)) {
-            child.traversePreOrder(children, visitAction);
-        }
+        traverse(children, visitAction, true);
     }
 
     public final void traversePostOrder(
         final Function<ControlFlowNode, Iterable<ControlFlowNode>> children,
         final Block<ControlFlowNode> visitAction) {
 
+        traverse(children, visitAction, false);
+    }
+
+    private void traverse(
+        final Function<ControlFlowNode, Iterable<ControlFlowNode>> children,
+        final Block<ControlFlowNode> visitAction,
+        final boolean preOrder) {
+
         if (_visited) {
             return;
         }
 
-        _visited = true;
+        //
+        // Visit nodes in exactly the order the obvious recursive traversal would, but keep the
+        // path in arrays rather than on the call stack; graphs of large methods get deep.
+        //
+        ControlFlowNode[] nodes = new ControlFlowNode[16];
+        Iterator<?>[] iterators = new Iterator<?>[16];
+        int depth = 0;
+
+        nodes[0] = this;
+        iterators[0] = enter(this, children, visitAction, preOrder);
+
+        while (depth >= 0) {
+            final Iterator<?> iterator = iterators[depth];
+
+            if (iterator.hasNext()) {
+                final ControlFlowNode child = (ControlFlowNode) iterator.next();
+
+                if (child._visited) {
+                    continue;
+                }
+
+                if (++depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    iterators = Arrays.copyOf(iterators, depth * 2);
+                }
+
+                nodes[depth] = child;
+                iterators[depth] = enter(child, children, visitAction, preOrder);
+            }
+            else {
+                if (!preOrder) {
+                    visitAction.accept(nodes[depth]);
+                }
+
+                nodes[depth] = null;
+                iterators[depth--] = null;
+            }
+        }
+    }
+
+    private static Iterator<?> enter(
+        final ControlFlowNode node,
+        final Function<ControlFlowNode, Iterable<ControlFlowNode>> children,
+        final Block<ControlFlowNode> visitAction,
+        final boolean preOrder) {
+
+        node._visited = true;
 
-        for (final ControlFlowNode child : children.apply(this)) {
-            child.traversePostOrder(children, visitAction);
+        if (preOrder) {
+            visitAction.accept(node);
         }
 
-        visitAction.accept(this);
+        return children.apply(node).iterator();
     }
 
+    /**
+     * Returns whether this node dominates {@code node}, i.e., whether it lies on every path from
+     * the entry point to {@code node}.  Every node dominates itself.  If the dominator tree has
+     * not changed since {@link ControlFlowGraph#computeDominance()} numbered it, this is a check
+     * of the nodes' pre- and post-order intervals; otherwise, it walks up from {@code node}.
+     */
     public final boolean dominates(final ControlFlowNode node) {
+        if (node == null) {
+            return false;
+        }
+
+        final DominatorTreeNumbering numbering = _dominatorTreeNumbering;
+
+        if (numbering != null && numbering.isValid && node._dominatorTreeNumbering == numbering) {
+            return _dominatorTreePreOrder <= node._dominatorTreePreOrder &&
+                   node._dominatorTreePostOrder <= _dominatorTreePostOrder;
+        }
+
         ControlFlowNode current = node;
 
         while (current != null) {
@@ -384,6 +470,14 @@ public final class ControlFlowNode implements Comparable<ControlFlowNode> {
         return Integer.compare(_blockIndex, o._blockIndex);
     }
 
+    /**
+     * Identifies one numbering of a dominator tree.  Each numbered node refers to it, and the
+     * first change to any node's immediate dominator marks it as no longer valid.
+     */
+    final static class DominatorTreeNumbering {
+        boolean isValid = true;
+    }
+
     // <editor-fold defaultstate="collapsed" desc="Iterators">
 
     private final class PredecessorIterator implements Iterator<ControlFlowNode> {
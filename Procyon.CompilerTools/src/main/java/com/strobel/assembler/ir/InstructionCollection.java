@@ -16,11 +16,9 @@
 
 package com.strobel.assembler.ir;
 
-import com.strobel.annotations.NotNull;
 import com.strobel.assembler.Collection;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 
 import static com.strobel.core.CollectionUtilities.lastOrDefault;
 
@@ -28,6 +26,19 @@ import static com.strobel.core.CollectionUtilities.lastOrDefault;
  * @author Mike Strobel
  */
 public final class InstructionCollection extends Collection<Instruction> {
+    //
+    // Maps each offset to the ordinal (position) of the instruction starting there, or -1.  The
+    // index is built by the first lookup, sized to the instructions present at the time, and later
+    // lookups extend it over anything appended since; any other change discards it.  It is only
+    // used while offsets are strictly increasing; otherwise lookups fall back to searching.  Lookups
+    // still check what they find, so an instruction whose offset was changed directly cannot
+    // produce a wrong answer.
+    //
+    private int[] _ordinalsByOffset;
+    private int _indexedCount;
+    private int _lastIndexedOffset = -1;
+    private boolean _isIndexUsable = true;
+
     public Instruction atOffset(final int offset) {
         final Instruction result = tryGetAtOffset(offset);
 
@@ -39,16 +50,13 @@ public final class InstructionCollection extends Collection<Instruction> {
     }
 
     public Instruction tryGetAtOffset(final int offset) {
-        final int index = Collections.binarySearch(
-            this,
-            new Instruction(offset, OpCode.NOP),
-            new Comparator<Instruction>() {
-                @Override
-                public int compare(@NotNull final Instruction o1, @NotNull final Instruction o2) {
-                    return Integer.compare(o1.getOffset(), o2.getOffset());
-                }
-            }
-        );
+        final int ordinal = lookupOrdinal(offset);
+
+        if (ordinal >= 0) {
+            return get(ordinal);
+        }
+
+        final int index = binarySearch(offset);
 
         if (index < 0) {
             final Instruction last = lastOrDefault(this);
@@ -66,8 +74,154 @@ public final class InstructionCollection extends Collection<Instruction> {
         return get(index);
     }
 
+    /**
+     * Returns the position of {@code instruction} in this collection, or {@code -1} if it is not
+     * a member.  Unlike {@link #indexOf(Object)}, this does not scan the collection, so it can be
+     * used to key side tables by position.
+     */
+    public int ordinalOf(final Instruction instruction) {
+        if (instruction == null) {
+            return -1;
+        }
+
+        final int ordinal = lookupOrdinal(instruction.getOffset());
+
+        if (ordinal >= 0 && get(ordinal) == instruction) {
+            return ordinal;
+        }
+
+        for (int i = 0, n = size(); i < n; i++) {
+            if (get(i) == instruction) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int lookupOrdinal(final int offset) {
+        if (offset < 0) {
+            return -1;
+        }
+
+        if (_indexedCount != size()) {
+            extendIndex();
+        }
+
+        final int[] ordinals = _ordinalsByOffset;
+
+        if (!_isIndexUsable || ordinals == null || offset >= ordinals.length) {
+            return -1;
+        }
+
+        final int ordinal = ordinals[offset];
+
+        if (ordinal >= 0 && ordinal < size() && get(ordinal).getOffset() == offset) {
+            return ordinal;
+        }
+
+        return -1;
+    }
+
+    private int binarySearch(final int offset) {
+        int low = 0;
+        int high = size() - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int middleOffset = get(middle).getOffset();
+
+            if (middleOffset < offset) {
+                low = middle + 1;
+            }
+            else if (middleOffset > offset) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    /**
+     * Discards the offset index, releasing its memory.  The next lookup by offset or ordinal
+     * builds a new one.  Call this once a body has been read, so that the index it needed while
+     * reading is not kept around for as long as the body is.
+     */
+    public void releaseIndex() {
+        invalidateIndex();
+    }
+
+    private void extendIndex() {
+        if (_indexedCount > size()) {
+            invalidateIndex();
+        }
+
+        for (int i = _indexedCount, n = size(); i < n && _isIndexUsable; i++) {
+            indexInstruction(i, get(i));
+        }
+
+        //
+        // Remember that we tried, so an unusable index is not rebuilt on every lookup.
+        //
+        _indexedCount = size();
+    }
+
+    private void indexInstruction(final int ordinal, final Instruction instruction) {
+        final int offset = instruction.getOffset();
+
+        _indexedCount = ordinal + 1;
+
+        if (!_isIndexUsable) {
+            return;
+        }
+
+        if (offset <= _lastIndexedOffset) {
+            _isIndexUsable = false;
+            _ordinalsByOffset = null;
+            return;
+        }
+
+        int[] ordinals = _ordinalsByOffset;
+
+        if (ordinals == null) {
+            //
+            // Size the index to the instructions we have; only later appends make it grow.
+            //
+            ordinals = new int[Math.max(offset, get(size() - 1).getOffset()) + 1];
+            Arrays.fill(ordinals, -1);
+        }
+        else if (offset >= ordinals.length) {
+            final int oldLength = ordinals.length;
+
+            ordinals = Arrays.copyOf(ordinals, Math.max(oldLength * 2, offset + 1));
+            Arrays.fill(ordinals, oldLength, ordinals.length, -1);
+        }
+
+        ordinals[offset] = ordinal;
+
+        _ordinalsByOffset = ordinals;
+        _lastIndexedOffset = offset;
+    }
+
+    private void invalidateIndex() {
+        _ordinalsByOffset = null;
+        _indexedCount = 0;
+        _lastIndexedOffset = -1;
+        _isIndexUsable = true;
+    }
+
     @Override
     protected void afterAdd(final int index, final Instruction item, final boolean appended) {
+        //
+        // Appending leaves the index valid as far as it goes; the next lookup extends it.
+        //
+        if (!appended || index < _indexedCount) {
+            invalidateIndex();
+        }
+
         final Instruction next = index < size() - 1 ? get(index + 1) : null;
         final Instruction previous = index > 0 ? get(index - 1) : null;
 
@@ -85,6 +239,8 @@ public final class InstructionCollection extends Collection<Instruction> {
 
     @Override
     protected void beforeSet(final int index, final Instruction item) {
+        invalidateIndex();
+
         final Instruction current = get(index);
 
         item.setPrevious(current.getPrevious());
@@ -96,6 +252,8 @@ public final class InstructionCollection extends Collection<Instruction> {
 
     @Override
     protected void afterRemove(final int index, final Instruction item) {
+        invalidateIndex();
+
         final Instruction current = item.getNext();
         final Instruction previous = item.getPrevious();
 
@@ -113,6 +271,8 @@ public final class InstructionCollection extends Collection<Instruction> {
 
     @Override
     protected void beforeClear() {
+        invalidateIndex();
+
         for (int i = 0; i < size(); i++) {
             get(i).setNext(null);
             get(i).setPrevious(null);
@@ -120,6 +280,8 @@ public final class InstructionCollection extends Collection<Instruction> {
     }
 
     public void recomputeOffsets() {
+        invalidateIndex();
+
         if (isEmpty()) {
             return;
         }
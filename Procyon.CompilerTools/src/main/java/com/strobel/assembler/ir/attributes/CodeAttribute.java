@@ -56,14 +56,11 @@ public final class CodeAttribute extends SourceAttribute {
         _codeSize = codeSize;
 
         final Buffer code = new Buffer(codeSize);
+        final int position = buffer.position();
 
-        System.arraycopy(
-            buffer.array(),
-            codeOffset,
-            code.array(),
-            0,
-            codeSize
-        );
+        buffer.position(codeOffset);
+        buffer.read(code.array(), 0, codeSize);
+        buffer.position(position);
 
         _code = code;
         _attributesView = ArrayUtilities.asUnmodifiableList(attributes.clone());
@@ -17,7 +17,6 @@
 package com.strobel.assembler.metadata;
 
 import com.strobel.annotations.NotNull;
-import com.strobel.assembler.ir.ConstantPool;
 import com.strobel.core.ExceptionUtilities;
 import com.strobel.core.StringUtilities;
 import com.strobel.core.VerifyArgument;
@@ -71,7 +70,11 @@ public final class ArrayTypeLoader implements ITypeLoader {
         }
 
         try {
-            _className = getInternalNameFromClassFile(_buffer);
+            _className = ClassFileReader.readInternalName(_buffer);
+
+            if (_className == null) {
+                throw new IllegalStateException("Invalid classfile header.");
+            }
 
             if (LOG.isLoggable(Level.FINE)) {
                 LOG.log(Level.FINE, "Parsed header for class: " + _className);
@@ -92,25 +95,4 @@ public final class ArrayTypeLoader implements ITypeLoader {
             _parsed = true;
         }
     }
-
-    private static String getInternalNameFromClassFile(final Buffer b) {
-        final long magic = b.readInt() & 0xFFFFFFFFL;
-
-        if (magic != 0xCAFEBABEL) {
-            throw new IllegalStateException("Bad magic number: 0x" + Long.toHexString(magic));
-        }
-
-        b.readUnsignedShort(); // minor version
-        b.readUnsignedShort(); // major version
-
-        final ConstantPool constantPool = ConstantPool.read(b);
-
-        b.readUnsignedShort(); // access flags
-
-        final ConstantPool.TypeInfoEntry thisClass = constantPool.getEntry(b.readUnsignedShort());
-
-        b.position(0);
-
-        return thisClass.getName();
-    }
 }
@@ -75,6 +75,14 @@ public class Buffer {
         _position += length;
     }
 
+    /**
+     * Discards the content of this buffer, leaving it empty but keeping its backing array.
+     */
+    public void clear() {
+        _length = 0;
+        _position = 0;
+    }
+
     public void reset() {
         reset(DEFAULT_SIZE);
     }
@@ -83,13 +91,22 @@ public class Buffer {
         if (VerifyArgument.isNonNegative(initialSize, "initialSize") == 0) {
             _data = EmptyArrayCache.EMPTY_BYTE_ARRAY;
         }
-        else if (initialSize > _data.length || initialSize < _data.length / 4) {
+        else if (shouldReallocate(initialSize, _data.length)) {
             _data = new byte[initialSize];
         }
         _length = initialSize;
         _position = 0;
     }
 
+    /**
+     * Determines whether {@link #reset(int)} should replace a backing array with the given
+     * capacity in order to hold {@code size} bytes.  By default, arrays which are much larger
+     * than necessary are replaced too, so a buffer does not hold on to memory it no longer needs.
+     */
+    protected boolean shouldReallocate(final int size, final int capacity) {
+        return size > capacity || size < capacity / 4;
+    }
+
     public byte[] array() {
         return _data;
     }
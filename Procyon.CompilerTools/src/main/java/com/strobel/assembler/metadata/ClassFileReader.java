@@ -28,10 +28,12 @@ import com.strobel.core.StringUtilities;
 import com.strobel.core.VerifyArgument;
 import com.strobel.util.EmptyArrayCache;
 
+import java.nio.BufferUnderflowException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author Mike Strobel
@@ -39,15 +41,25 @@ import java.util.List;
 @SuppressWarnings({ "ConstantConditions", "PointlessBitwiseExpression", "UnnecessaryContinue" })
 public final class ClassFileReader extends MetadataReader {
     public final static int OPTION_PROCESS_ANNOTATIONS = 1 << 0;
+    /**
+     * Decode method bodies ahead of time.  Once a type's methods have been read, their bodies are
+     * decoded on a shared background pool; a body requested before then is decoded on demand.
+     */
     public final static int OPTION_PROCESS_CODE = 1 << 1;
 
+    /**
+     * Defer reading fields and methods until they are first requested from the type definition.
+     * The class file bytes are retained until then.
+     */
+    public final static int OPTION_LAZY_MEMBERS = 1 << 2;
+
     public final static int OPTIONS_DEFAULT = OPTION_PROCESS_ANNOTATIONS;
 
     final static long MAGIC = 0xCAFEBABEL;
 
     private final int _options;
     private final IMetadataResolver _resolver;
-    private final Buffer _buffer;
+    private Buffer _buffer;
     private final ConstantPool _constantPool;
     private final ConstantPool.TypeInfoEntry _baseClassEntry;
     private final ConstantPool.TypeInfoEntry[] _interfaceEntries;
@@ -61,6 +73,20 @@ public final class ClassFileReader extends MetadataReader {
     private final ResolverFrame _resolverFrame;
     private final Scope _scope;
 
+    //
+    // State for lazily materialized members (see OPTION_LAZY_MEMBERS).  Once the type has been
+    // read, _buffer and _materializingThreads are guarded by _memberLock.
+    //
+    private final Object _memberLock = new Object();
+    private final List<Thread> _materializingThreads = new ArrayList<>();
+    private int _memberOffset;
+
+    //
+    // Methods whose bodies should be decoded in the background once the members are read (see
+    // OPTION_PROCESS_CODE).
+    //
+    private List<MethodDefinition> _pendingBodies;
+
     private ClassFileReader(
         final int options,
         final IMetadataResolver resolver,
@@ -122,6 +148,31 @@ public final class ClassFileReader extends MetadataReader {
         _typeDefinition.setConstantPool(_constantPool);
     }
 
+    /**
+     * Creates a reader for the deferred members of {@code reader}'s type.  It reads from its own view
+     * of the retained class file and parses with its own parser, so any number of them may run at
+     * once without holding a lock.
+     */
+    private ClassFileReader(final ClassFileReader reader, final Buffer buffer) {
+        super();
+
+        _options = reader._options;
+        _resolver = reader._resolver;
+        _resolverFrame = reader._resolverFrame;
+        _internalName = reader._internalName;
+        _buffer = buffer;
+        _constantPool = reader._constantPool;
+        _baseClassEntry = reader._baseClassEntry;
+        _interfaceEntries = reader._interfaceEntries;
+        _fields = new ArrayList<>();
+        _methods = new ArrayList<>();
+        _typeDefinition = reader._typeDefinition;
+        _attributes = reader._attributes;
+        _parser = new MetadataParser(_typeDefinition);
+        _scope = new Scope(_parser, _typeDefinition, _constantPool);
+        _memberOffset = reader._memberOffset;
+    }
+
     protected boolean shouldProcessAnnotations() {
         return (_options & OPTION_PROCESS_ANNOTATIONS) == OPTION_PROCESS_ANNOTATIONS;
     }
@@ -130,6 +181,10 @@ public final class ClassFileReader extends MetadataReader {
         return (_options & OPTION_PROCESS_CODE) == OPTION_PROCESS_CODE;
     }
 
+    protected boolean shouldDeferMembers() {
+        return (_options & OPTION_LAZY_MEMBERS) == OPTION_LAZY_MEMBERS;
+    }
+
     @Override
     protected IMetadataScope getScope() {
         return _scope;
@@ -168,9 +223,8 @@ public final class ClassFileReader extends MetadataReader {
                 final int maxLocals = buffer.readUnsignedShort();
                 final int codeLength = buffer.readInt();
                 final int codeOffset = buffer.position();
-                final byte[] code = new byte[codeLength];
 
-                buffer.read(code, 0, codeLength);
+                buffer.advance(codeLength);
 
                 final int exceptionTableLength = buffer.readUnsignedShort();
                 final ExceptionTableEntry[] exceptionTable = new ExceptionTableEntry[exceptionTableLength];
@@ -327,6 +381,107 @@ public final class ClassFileReader extends MetadataReader {
         }
     }
 
+    /**
+     * Reads the internal name of the class defined in the classfile contained in {@code b}
+     * without materializing its constant pool.  Entries are skipped by their tag lengths, and
+     * only the {@code Utf8} entry referenced by {@code this_class} is decoded.  The buffer is
+     * always rewound to position zero.
+     *
+     * @return the internal name of the class, or {@code null} if {@code b} does not contain a
+     * well-formed classfile header.
+     */
+    public static String readInternalName(final Buffer b) {
+        VerifyArgument.notNull(b, "b");
+
+        try {
+            if (b.size() < 10 || (b.readInt() & 0xFFFFFFFFL) != MAGIC) {
+                return null;
+            }
+
+            b.readUnsignedShort(); // minor version
+            b.readUnsignedShort(); // major version
+
+            final int entryCount = b.readUnsignedShort();
+            final int[] offsets = new int[entryCount];
+
+            for (int i = 1; i < entryCount; i++) {
+                offsets[i] = b.position();
+
+                final int tag = b.readUnsignedByte();
+                final int length;
+
+                switch (tag) {
+                    case 1:  // Utf8
+                        length = b.readUnsignedShort();
+                        break;
+                    case 7:  // Class
+                    case 8:  // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        length = 2;
+                        break;
+                    case 15: // MethodHandle
+                        length = 3;
+                        break;
+                    case 3:  // Integer
+                    case 4:  // Float
+                    case 9:  // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        length = 4;
+                        break;
+                    case 5:  // Long
+                    case 6:  // Double
+                        length = 8;
+                        i++;
+                        break;
+                    default:
+                        return null;
+                }
+
+                b.advance(length);
+            }
+
+            b.readUnsignedShort(); // access flags
+
+            final int thisClass = b.readUnsignedShort();
+
+            if (thisClass <= 0 || thisClass >= entryCount || offsets[thisClass] == 0) {
+                return null;
+            }
+
+            b.position(offsets[thisClass]);
+
+            if (b.readUnsignedByte() != 7) {
+                return null;
+            }
+
+            final int nameIndex = b.readUnsignedShort();
+
+            if (nameIndex <= 0 || nameIndex >= entryCount || offsets[nameIndex] == 0) {
+                return null;
+            }
+
+            b.position(offsets[nameIndex]);
+
+            if (b.readUnsignedByte() != 1) {
+                return null;
+            }
+
+            return b.readUtf8();
+        }
+        catch (final BufferUnderflowException ignored) {
+            return null;
+        }
+        finally {
+            b.position(0);
+        }
+    }
+
     public static TypeDefinition readClass(final IMetadataResolver resolver, final Buffer b) {
         return readClass(OPTIONS_DEFAULT, resolver, b);
     }
@@ -386,73 +541,54 @@ public final class ClassFileReader extends MetadataReader {
             _resolver.pushFrame(_resolverFrame);
 
             try {
-                populateMemberInfo();
+                if (shouldDeferMembers()) {
+                    skipMemberInfo();
+                }
+                else {
+                    populateMemberInfo();
+                }
 
                 SourceAttribute enclosingMethod = SourceAttribute.find(AttributeNames.EnclosingMethod, _attributes);
 
-                final MethodReference declaringMethod;
-
-                //noinspection UnusedDeclaration
-                try /*(final AutoCloseable ignored = _parser.suppressTypeResolution())*/ {
-                    if (enclosingMethod instanceof BlobAttribute) {
-                        enclosingMethod = inflateAttribute(enclosingMethod);
-                    }
-
-                    if (enclosingMethod instanceof EnclosingMethodAttribute) {
-                        MethodReference method = ((EnclosingMethodAttribute) enclosingMethod).getEnclosingMethod();
-
-                        if (method != null) {
-                            final MethodDefinition resolvedMethod = method.resolve();
-
-                            if (resolvedMethod != null) {
-                                method = resolvedMethod;
-
-                                final AnonymousLocalTypeCollection enclosedTypes = resolvedMethod.getDeclaredTypesInternal();
-
-                                if (!enclosedTypes.contains(_typeDefinition)) {
-                                    enclosedTypes.add(_typeDefinition);
-                                }
-                            }
+                if (enclosingMethod instanceof BlobAttribute) {
+                    enclosingMethod = inflateAttribute(enclosingMethod);
+                }
 
-                            _typeDefinition.setDeclaringMethod(method);
-                        }
+                if (enclosingMethod instanceof EnclosingMethodAttribute) {
+                    final MethodReference method = ((EnclosingMethodAttribute) enclosingMethod).getEnclosingMethod();
 
-                        declaringMethod = method;
-                    }
-                    else {
-                        declaringMethod = null;
+                    if (method != null) {
+                        //
+                        // Resolved on demand.  Until then, the type definition's generic context
+                        // falls back to the enclosing method as needed, so we need not push it here.
+                        //
+                        _typeDefinition.setEnclosingMethod(method);
                     }
                 }
-                catch (final Exception e) {
-                    throw ExceptionUtilities.asRuntimeException(e);
-                }
 
-                if (declaringMethod != null) {
-                    _parser.popGenericContext();
-                    _parser.pushGenericContext(declaringMethod);
-                    _parser.pushGenericContext(_typeDefinition);
-                }
+                populateDeclaringType();
+                populateBaseTypes();
+                visitAttributes();
 
-                try {
-                    populateDeclaringType();
-                    populateBaseTypes();
-                    visitAttributes();
-                    visitFields();
-                    defineMethods();
-                    populateNamedInnerTypes();
-                    populateAnonymousInnerTypes();
-                    checkEnclosingMethodAttributes();
+                if (shouldDeferMembers()) {
+                    retainBuffer();
+                    _typeDefinition.setMemberReader(this);
                 }
-                finally {
-                    if (declaringMethod != null) {
-                        _parser.popGenericContext();
-                    }
+                else {
+                    visitFields(_typeDefinition.getDeclaredFieldsInternal());
+                    defineMethods(_typeDefinition.getDeclaredMethodsInternal());
                 }
+
+                populateNamedInnerTypes();
+                populateAnonymousInnerTypes();
+                recordLocalTypes();
             }
             finally {
                 _resolver.popFrame();
             }
 
+            decodePendingBodies();
+
             return _typeDefinition;
         }
         finally {
@@ -460,13 +596,15 @@ public final class ClassFileReader extends MetadataReader {
         }
     }
 
-    private void checkEnclosingMethodAttributes() {
+    private void recordLocalTypes() {
         final InnerClassesAttribute innerClasses = SourceAttribute.find(AttributeNames.InnerClasses, _attributes);
 
         if (innerClasses == null) {
             return;
         }
 
+        List<TypeReference> localTypes = null;
+
         for (final InnerClassEntry entry : innerClasses.getEntries()) {
             final String outerClassName = entry.getOuterClassName();
             final String innerClassName = entry.getInnerClassName();
@@ -479,48 +617,151 @@ public final class ClassFileReader extends MetadataReader {
                 continue;
             }
 
-            final TypeReference innerType = _parser.parseTypeDescriptor(innerClassName);
-            final TypeDefinition resolvedInnerType = innerType.resolve();
+            if (localTypes == null) {
+                localTypes = new ArrayList<>();
+            }
 
-            if (resolvedInnerType != null && resolvedInnerType.getDeclaringMethod() == null) {
-                final EnclosingMethodAttribute enclosingMethodAttribute;
+            localTypes.add(_parser.parseTypeDescriptor(innerClassName));
+        }
 
-                final SourceAttribute rawEnclosingMethodAttribute = SourceAttribute.find(
-                    AttributeNames.EnclosingMethod,
-                    resolvedInnerType.getSourceAttributes()
-                );
+        if (localTypes != null) {
+            _typeDefinition.setLocalTypes(localTypes);
+        }
+    }
 
-                if (rawEnclosingMethodAttribute instanceof EnclosingMethodAttribute) {
-                    enclosingMethodAttribute = (EnclosingMethodAttribute) rawEnclosingMethodAttribute;
-                }
-                else {
-                    enclosingMethodAttribute = null;
+    /**
+     * Reads the fields and methods of a type read with {@link #OPTION_LAZY_MEMBERS}.  Called by the
+     * type definition the first time its members are requested.
+     */
+    final void materializeMembers() {
+        final Thread currentThread = Thread.currentThread();
+        final Buffer buffer;
+
+        synchronized (_memberLock) {
+            if (_buffer == null || _materializingThreads.contains(currentThread)) {
+                //
+                // Either we're done, or the members are being read further up the stack, in which
+                // case the caller sees no members yet.
+                //
+                return;
+            }
+
+            _materializingThreads.add(currentThread);
+            buffer = new Buffer(_buffer.array());
+        }
+
+        //
+        // Reading the members resolves other types, which may in turn need the members of this
+        // one, possibly on another thread.  Read them without holding any lock, and publish the
+        // first complete set; readers racing with us simply discard theirs.
+        //
+        final ClassFileReader reader = new ClassFileReader(this, buffer);
+        final List<FieldDefinition> fields = new ArrayList<>();
+        final List<MethodDefinition> methods = new ArrayList<>();
+
+        boolean published = false;
+
+        try {
+            reader.readDeferredMembers(fields, methods);
+        }
+        finally {
+            synchronized (_memberLock) {
+                _materializingThreads.remove(currentThread);
+
+                if (_buffer != null) {
+                    _buffer = null;
+                    _typeDefinition.publishMembers(fields, methods);
+                    published = true;
                 }
+            }
+        }
+
+        if (published) {
+            reader.decodePendingBodies();
+        }
+    }
+
+    private void readDeferredMembers(final List<FieldDefinition> fields, final List<MethodDefinition> methods) {
+        _parser.pushGenericContext(_typeDefinition);
+        _resolver.pushFrame(_resolverFrame);
 
-                MethodReference method;
+        try {
+            _buffer.position(_memberOffset);
 
-                if (enclosingMethodAttribute != null &&
-                    (method = enclosingMethodAttribute.getEnclosingMethod()) != null) {
+            readMemberInfo();
+            visitFields(fields);
+            defineMethods(methods);
+        }
+        finally {
+            _resolver.popFrame();
+            _parser.popGenericContext();
+        }
+    }
 
-                    final MethodDefinition resolvedMethod = method.resolve();
+    private void retainBuffer() {
+        //
+        // The buffer we were given belongs to the caller, who may reuse it as soon as we return.
+        // Keep our own copy of the class file; attribute offsets are relative to its start.
+        //
+        final Buffer buffer = _buffer;
+        final int size = buffer.size();
+        final byte[] data = new byte[size];
 
-                    if (resolvedMethod != null) {
-                        method = resolvedMethod;
+        buffer.position(0);
+        buffer.read(data, 0, size);
 
-                        final AnonymousLocalTypeCollection enclosedTypes = resolvedMethod.getDeclaredTypesInternal();
+        _buffer = new Buffer(data);
+    }
 
-                        if (!enclosedTypes.contains(_typeDefinition)) {
-                            enclosedTypes.add(_typeDefinition);
-                        }
-                    }
+    private void skipMemberInfo() {
+        _memberOffset = _buffer.position();
 
-                    resolvedInnerType.setDeclaringMethod(method);
-                }
+        final int fieldCount = _buffer.readUnsignedShort();
+
+        for (int i = 0; i < fieldCount; i++) {
+            _buffer.advance(6); // access flags, name, descriptor
+            skipAttributes();
+        }
+
+        final int methodCount = _buffer.readUnsignedShort();
+
+        for (int i = 0; i < methodCount; i++) {
+            final int accessFlags = _buffer.readUnsignedShort();
+            final int nameToken = _buffer.readUnsignedShort();
+
+            _buffer.advance(2); // descriptor
+
+            //
+            // A strictfp constructor is how we know the class itself was declared strictfp, and we
+            // would like to know that without reading the methods.
+            //
+            if (Flags.testAny(accessFlags, Flags.STRICTFP) &&
+                "<init>".equals(_constantPool.lookupUtf8Constant(nameToken))) {
+
+                _typeDefinition.setFlags(_typeDefinition.getFlags() | Flags.STRICTFP);
             }
+
+            skipAttributes();
+        }
+
+        readTypeAttributes();
+    }
+
+    private void skipAttributes() {
+        final int attributeCount = _buffer.readUnsignedShort();
+
+        for (int i = 0; i < attributeCount; i++) {
+            _buffer.advance(2); // name
+            _buffer.advance(_buffer.readInt());
         }
     }
 
     private void populateMemberInfo() {
+        readMemberInfo();
+        readTypeAttributes();
+    }
+
+    private void readMemberInfo() {
         final int fieldCount = _buffer.readUnsignedShort();
 
         for (int i = 0; i < fieldCount; i++) {
@@ -568,7 +809,9 @@ public final class ClassFileReader extends MetadataReader {
 
             _methods.add(method);
         }
+    }
 
+    private void readTypeAttributes() {
         final int typeAttributeCount = _buffer.readUnsignedShort();
 
         if (typeAttributeCount > 0) {
@@ -628,8 +871,10 @@ public final class ClassFileReader extends MetadataReader {
 
                         final Collection<TypeDefinition> declaredTypes = resolvedOuterType.getDeclaredTypesInternal();
 
-                        if (!declaredTypes.contains(_typeDefinition)) {
-                            declaredTypes.add(_typeDefinition);
+                        synchronized (declaredTypes) {
+                            if (!declaredTypes.contains(_typeDefinition)) {
+                                declaredTypes.add(_typeDefinition);
+                            }
                         }
                     }
                 }
@@ -773,9 +1018,7 @@ public final class ClassFileReader extends MetadataReader {
     }
 
     @SuppressWarnings("ConstantConditions")
-    private void visitFields() {
-        final Collection<FieldDefinition> declaredFields = _typeDefinition.getDeclaredFieldsInternal();
-
+    private void visitFields(final List<FieldDefinition> declaredFields) {
         for (final FieldInfo field : _fields) {
             final TypeReference fieldType;
             final SignatureAttribute signature = SourceAttribute.find(AttributeNames.Signature, field.attributes);
@@ -888,7 +1131,7 @@ public final class ClassFileReader extends MetadataReader {
     }
 
     @SuppressWarnings("ConstantConditions")
-    private void defineMethods() {
+    private void defineMethods(final List<MethodDefinition> declaredMethods) {
         try (final AutoCloseable ignored = _parser.suppressTypeResolution()) {
             for (final MethodInfo method : _methods) {
                 final IMethodSignature methodSignature;
@@ -903,7 +1146,7 @@ public final class ClassFileReader extends MetadataReader {
                     methodDefinition.setFlags(methodDefinition.getFlags() | Flags.DEFAULT);
                 }
 
-                _typeDefinition.getDeclaredMethodsInternal().add(methodDefinition);
+                declaredMethods.add(methodDefinition);
                 _parser.pushGenericContext(methodDefinition);
 
                 try {
@@ -1091,40 +1334,44 @@ public final class ClassFileReader extends MetadataReader {
 
     private void readMethodBody(final MethodInfo methodInfo, final MethodDefinition methodDefinition) {
         if (methodInfo.codeAttribute instanceof CodeAttribute) {
+            final CodeAttribute codeAttribute = (CodeAttribute) methodInfo.codeAttribute;
+
             if (Flags.testAny(_options, OPTION_PROCESS_CODE)) {
-                final MethodReader reader = new MethodReader(methodDefinition, _scope);
-                final MethodBody body = reader.readBody();
+                //
+                // The code attribute holds its own copy of the bytecode, so the body can be decoded
+                // on any thread, and the method's deferred body loading already takes care of doing
+                // that exactly once.  Queue it up for the background decoder.
+                //
+                if (_pendingBodies == null) {
+                    _pendingBodies = new ArrayList<>();
+                }
 
-                methodDefinition.setBody(body);
-                body.freeze();
+                _pendingBodies.add(methodDefinition);
             }
-            else {
-                final CodeAttribute codeAttribute = (CodeAttribute) methodInfo.codeAttribute;
 
-                final LocalVariableTableAttribute localVariables = SourceAttribute.find(
-                    AttributeNames.LocalVariableTable,
-                    codeAttribute.getAttributes()
-                );
+            final LocalVariableTableAttribute localVariables = SourceAttribute.find(
+                AttributeNames.LocalVariableTable,
+                codeAttribute.getAttributes()
+            );
 
-                if (localVariables == null) {
-                    return;
-                }
+            if (localVariables == null) {
+                return;
+            }
 
-                final List<ParameterDefinition> parameters = methodDefinition.getParameters();
+            final List<ParameterDefinition> parameters = methodDefinition.getParameters();
 
-                for (final LocalVariableTableEntry entry : localVariables.getEntries()) {
-                    ParameterDefinition parameter = null;
+            for (final LocalVariableTableEntry entry : localVariables.getEntries()) {
+                ParameterDefinition parameter = null;
 
-                    for (int j = 0; j < parameters.size(); j++) {
-                        if (parameters.get(j).getSlot() == entry.getIndex()) {
-                            parameter = parameters.get(j);
-                            break;
-                        }
+                for (int j = 0; j < parameters.size(); j++) {
+                    if (parameters.get(j).getSlot() == entry.getIndex()) {
+                        parameter = parameters.get(j);
+                        break;
                     }
+                }
 
-                    if (parameter != null && !parameter.hasName()) {
-                        parameter.setName(entry.getName());
-                    }
+                if (parameter != null && !parameter.hasName()) {
+                    parameter.setName(entry.getName());
                 }
             }
         }
@@ -1365,6 +1612,55 @@ public final class ClassFileReader extends MetadataReader {
 
     // </editor-fold>
 
+    // <editor-fold defaultstate="collapsed" desc="Background Body Decoding">
+
+    private void decodePendingBodies() {
+        final List<MethodDefinition> pendingBodies = _pendingBodies;
+
+        if (pendingBodies == null) {
+            return;
+        }
+
+        _pendingBodies = null;
+
+        for (final MethodDefinition method : pendingBodies) {
+            BodyDecoder.POOL.execute(new BodyDecoder(method));
+        }
+    }
+
+    private final static class BodyDecoder implements Runnable {
+        //
+        // Worker threads of a fork-join pool are daemon threads, so pending work never keeps the
+        // JVM alive.  Tasks are independent, so run them in submission order (async mode).
+        //
+        final static ForkJoinPool POOL = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+            null,
+            true
+        );
+
+        private final MethodDefinition _method;
+
+        BodyDecoder(final MethodDefinition method) {
+            _method = method;
+        }
+
+        @Override
+        public void run() {
+            try {
+                _method.getBody();
+            }
+            catch (final Throwable ignored) {
+                //
+                // Whoever asks for the body next will try again, and see the failure for themselves.
+                //
+            }
+        }
+    }
+
+    // </editor-fold>
+
     // <editor-fold defaultstate="collapsed" desc="ResolverFrame Class">
 
     private final class ResolverFrame implements IResolverFrame {
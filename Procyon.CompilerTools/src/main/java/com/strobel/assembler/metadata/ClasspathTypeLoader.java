@@ -16,32 +16,73 @@
 
 package com.strobel.assembler.metadata;
 
+import com.strobel.core.ExceptionUtilities;
+import com.strobel.core.VerifyArgument;
+
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * @author Mike Strobel
  */
-public final class ClasspathTypeLoader implements ITypeLoader {
+public final class ClasspathTypeLoader implements ITypeLoader, Closeable {
     private final static Logger LOG = Logger.getLogger(ClasspathTypeLoader.class.getSimpleName());
 
     private final ClassLoader _loader;
+    private final JrtTypeLoader _runtimeTypeLoader;
+    private final Map<String, ClasspathEntry[]> _packageEntries;
 
     public ClasspathTypeLoader() {
         _loader = ClassLoader.getSystemClassLoader();
+        _runtimeTypeLoader = JrtTypeLoader.runtimeTypeLoader();
+        _packageEntries = null;
     }
 
-    //
-    // Temporarily removing this constructor to get a Java 9 compatibility fix out quickly.
-    // Hopefully nobody is using it.  Will restore once ClasspathTypeLoader can be fleshed
-    // out to support arbitrary paths.
-    //
-//    public ClasspathTypeLoader(final String classPath) {
-//        throw new UnsupportedOperationException("Custom classpaths are temporarily unsupported.");
-//    }
+    /**
+     * Creates a type loader for an explicit class path: a list of jar files and class directories
+     * separated by {@link File#pathSeparator}.  Every entry is indexed up front by the packages it
+     * contains, so each lookup goes directly to the entries which own the type's package rather
+     * than probing every entry in turn.  Platform types are still loaded from the running JVM.
+     * <p>
+     * Jar files are opened when a type is first loaded from them, and stay open until the loader
+     * is closed.
+     */
+    public ClasspathTypeLoader(final String classPath) {
+        VerifyArgument.notNull(classPath, "classPath");
+
+        //
+        // Only the platform classes should come from the running JVM, not the application classes
+        // it was launched with.  On Java 9+ those are read from the runtime image; on older JVMs,
+        // we ask the system class loader's parent, which sees only the boot and extension classes.
+        //
+        _loader = ClassLoader.getSystemClassLoader().getParent();
+        _runtimeTypeLoader = JrtTypeLoader.runtimeTypeLoader();
+        _packageEntries = buildPackageIndex(classPath);
+    }
 
     @Override
     public boolean tryLoadType(final String internalName, final Buffer buffer) {
@@ -49,6 +90,76 @@ public final class ClasspathTypeLoader implements ITypeLoader {
             LOG.fine("Attempting to load type: " + internalName + "...");
         }
 
+        //
+        // On Java 9+, platform types are read straight out of the runtime image.  Every platform
+        // package belongs to exactly one module, so the runtime image has the final say on them;
+        // going through the class loader would only get us a (much slower) jrt:/ URL to the same
+        // bytes.
+        //
+
+        final JrtTypeLoader runtimeTypeLoader = _runtimeTypeLoader;
+        final int packageEnd = internalName.lastIndexOf('/');
+        final String packageName = packageEnd > 0 ? internalName.substring(0, packageEnd) : "";
+
+        if (runtimeTypeLoader != null && packageEnd > 0 && runtimeTypeLoader.containsPackage(packageName)) {
+            return runtimeTypeLoader.tryLoadType(internalName, buffer);
+        }
+
+        if (_packageEntries != null) {
+            final ClasspathEntry[] entries = _packageEntries.get(packageName);
+
+            if (entries != null) {
+                try {
+                    for (final ClasspathEntry entry : entries) {
+                        if (entry.tryLoadType(internalName, buffer)) {
+                            return true;
+                        }
+                    }
+                }
+                catch (final IOException e) {
+                    throw ExceptionUtilities.asRuntimeException(e);
+                }
+            }
+        }
+
+        return _loader != null && tryLoadFromClassLoader(internalName, buffer);
+    }
+
+    /**
+     * Closes any jar files opened by a loader created for an explicit class path.  Loading types
+     * from those jar files afterwards fails with an {@link IllegalStateException}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_packageEntries == null) {
+            return;
+        }
+
+        final Set<ClasspathEntry> entries = Collections.newSetFromMap(new IdentityHashMap<ClasspathEntry, Boolean>());
+
+        for (final ClasspathEntry[] packageEntries : _packageEntries.values()) {
+            Collections.addAll(entries, packageEntries);
+        }
+
+        IOException error = null;
+
+        for (final ClasspathEntry entry : entries) {
+            try {
+                entry.close();
+            }
+            catch (final IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private boolean tryLoadFromClassLoader(final String internalName, final Buffer buffer) {
         final String path = internalName.concat(".class");
         final URL resource = _loader.getResource(path);
 
@@ -56,18 +167,15 @@ public final class ClasspathTypeLoader implements ITypeLoader {
             return false;
         }
 
-        try (final InputStream stream = _loader.getResourceAsStream(path)) {
-            final byte[] temp = new byte[4096];
+        try {
+            final URLConnection connection = resource.openConnection();
 
-            int bytesRead;
-
-            while ((bytesRead = stream.read(temp, 0, temp.length)) > 0) {
-                buffer.ensureWriteableBytes(bytesRead);
-                buffer.putByteArray(temp, 0, bytesRead);
+            try (final InputStream stream = connection.getInputStream()) {
+                if (!readFully(stream, connection.getContentLength(), buffer)) {
+                    return false;
+                }
             }
 
-            buffer.flip();
-
             if (LOG.isLoggable(Level.FINE)) {
                 LOG.fine("Type loaded from " + resource + ".");
             }
@@ -78,4 +186,257 @@ public final class ClasspathTypeLoader implements ITypeLoader {
             return false;
         }
     }
+
+    private static boolean readFully(final InputStream stream, final int contentLength, final Buffer buffer) throws IOException {
+        if (contentLength >= 0) {
+            //
+            // The size is known up front, so read straight into the buffer.
+            //
+            buffer.reset(contentLength);
+
+            int remainingBytes = contentLength;
+
+            while (remainingBytes > 0) {
+                final int bytesRead = stream.read(buffer.array(), contentLength - remainingBytes, remainingBytes);
+
+                if (bytesRead < 0) {
+                    break;
+                }
+
+                remainingBytes -= bytesRead;
+            }
+
+            return remainingBytes == 0;
+        }
+
+        final byte[] temp = new byte[4096];
+
+        int bytesRead;
+
+        buffer.clear();
+
+        while ((bytesRead = stream.read(temp, 0, temp.length)) > 0) {
+            buffer.ensureWriteableBytes(bytesRead);
+            buffer.putByteArray(temp, 0, bytesRead);
+        }
+
+        buffer.flip();
+        return true;
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Package Index">
+
+    private static Map<String, ClasspathEntry[]> buildPackageIndex(final String classPath) {
+        final Map<String, List<ClasspathEntry>> packageEntries = new HashMap<>();
+        final Set<String> seenPaths = new HashSet<>();
+
+        for (final String pathEntry : classPath.split(File.pathSeparator)) {
+            if (pathEntry.isEmpty()) {
+                continue;
+            }
+
+            final File file = new File(pathEntry);
+
+            if (!seenPaths.add(file.getAbsolutePath())) {
+                continue;
+            }
+
+            try {
+                if (file.isDirectory()) {
+                    final DirectoryEntry entry = new DirectoryEntry(file.toPath());
+
+                    for (final String packageName : entry.findPackages()) {
+                        addPackageEntry(packageEntries, packageName, entry);
+                    }
+                }
+                else if (file.isFile()) {
+                    final ArchiveEntry entry = new ArchiveEntry(file);
+
+                    for (final String packageName : entry.findPackages()) {
+                        addPackageEntry(packageEntries, packageName, entry);
+                    }
+                }
+                else if (LOG.isLoggable(Level.FINE)) {
+                    LOG.fine("Skipping missing class path entry: " + pathEntry);
+                }
+            }
+            catch (final IOException e) {
+                //
+                // A class path entry we cannot read is no different from one that does not exist;
+                // the JVM would skip it too.
+                //
+                LOG.log(Level.WARNING, "Skipping unreadable class path entry: " + pathEntry, e);
+            }
+        }
+
+        final Map<String, ClasspathEntry[]> index = new HashMap<>(packageEntries.size() * 2);
+
+        for (final Map.Entry<String, List<ClasspathEntry>> e : packageEntries.entrySet()) {
+            final List<ClasspathEntry> entries = e.getValue();
+            index.put(e.getKey(), entries.toArray(new ClasspathEntry[entries.size()]));
+        }
+
+        return Collections.unmodifiableMap(index);
+    }
+
+    private static void addPackageEntry(
+        final Map<String, List<ClasspathEntry>> packageEntries,
+        final String packageName,
+        final ClasspathEntry entry) {
+
+        //
+        // Split packages are rare, so most packages map to a single entry.  When one does span
+        // several entries, we keep them in class path order so the first one still wins.
+        //
+
+        List<ClasspathEntry> entries = packageEntries.get(packageName);
+
+        if (entries == null) {
+            packageEntries.put(packageName, entries = new ArrayList<>(1));
+        }
+
+        entries.add(entry);
+    }
+
+    private static String packageOf(final String resourceName) {
+        final int packageEnd = resourceName.lastIndexOf('/');
+        return packageEnd > 0 ? resourceName.substring(0, packageEnd) : "";
+    }
+
+    private abstract static class ClasspathEntry {
+        abstract Set<String> findPackages() throws IOException;
+
+        abstract boolean tryLoadType(final String internalName, final Buffer buffer) throws IOException;
+
+        void close() throws IOException {
+        }
+    }
+
+    private final static class ArchiveEntry extends ClasspathEntry {
+        private final File _file;
+        private JarFile _jarFile;
+        private boolean _isClosed;
+
+        ArchiveEntry(final File file) {
+            _file = file;
+        }
+
+        @Override
+        Set<String> findPackages() throws IOException {
+            final Set<String> packages = new LinkedHashSet<>();
+
+            try (final JarFile jarFile = new JarFile(_file)) {
+                final Enumeration<JarEntry> entries = jarFile.entries();
+
+                while (entries.hasMoreElements()) {
+                    final String name = entries.nextElement().getName();
+
+                    if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+                        packages.add(packageOf(name));
+                    }
+                }
+            }
+
+            return packages;
+        }
+
+        @Override
+        boolean tryLoadType(final String internalName, final Buffer buffer) throws IOException {
+            final JarFile jarFile = openJarFile();
+            final JarEntry entry = jarFile.getJarEntry(internalName + ".class");
+
+            if (entry == null) {
+                return false;
+            }
+
+            try (final InputStream stream = jarFile.getInputStream(entry)) {
+                final long size = entry.getSize();
+
+                if (!readFully(stream, size >= 0 && size <= Integer.MAX_VALUE ? (int) size : -1, buffer)) {
+                    return false;
+                }
+            }
+
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Type loaded from " + jarFile.getName() + "!" + entry.getName() + ".");
+            }
+
+            return true;
+        }
+
+        private synchronized JarFile openJarFile() throws IOException {
+            if (_isClosed) {
+                throw new IllegalStateException("Type loader has been closed: " + _file);
+            }
+
+            if (_jarFile == null) {
+                _jarFile = new JarFile(_file);
+            }
+
+            return _jarFile;
+        }
+
+        @Override
+        synchronized void close() throws IOException {
+            _isClosed = true;
+
+            if (_jarFile != null) {
+                _jarFile.close();
+                _jarFile = null;
+            }
+        }
+    }
+
+    private final static class DirectoryEntry extends ClasspathEntry {
+        private final Path _root;
+
+        DirectoryEntry(final Path root) {
+            _root = root;
+        }
+
+        @Override
+        Set<String> findPackages() throws IOException {
+            final Set<String> packages = new LinkedHashSet<>();
+
+            Files.walkFileTree(
+                _root,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                        if (file.getFileName().toString().endsWith(".class")) {
+                            final Path directory = _root.relativize(file).getParent();
+                            packages.add(directory != null ? directory.toString().replace(File.separatorChar, '/') : "");
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+            );
+
+            return packages;
+        }
+
+        @Override
+        boolean tryLoadType(final String internalName, final Buffer buffer) throws IOException {
+            final Path path = _root.resolve(internalName.replace('/', File.separatorChar) + ".class");
+
+            try (final InputStream stream = Files.newInputStream(path)) {
+                final long size = Files.size(path);
+
+                if (!readFully(stream, size <= Integer.MAX_VALUE ? (int) size : -1, buffer)) {
+                    return false;
+                }
+            }
+            catch (final NoSuchFileException ignored) {
+                return false;
+            }
+
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Type loaded from " + path.toUri() + ".");
+            }
+
+            return true;
+        }
+    }
+
+    // </editor-fold>
 }
@@ -22,18 +22,36 @@ import com.strobel.assembler.ir.OpCode;
 import com.strobel.core.VerifyArgument;
 
 public class DeobfuscationUtilities {
+    //
+    // Types may be processed by several threads sharing one metadata system, so updates to their
+    // flags must not be lost.  Only the flag updates themselves are guarded; nothing is resolved
+    // while holding the lock.
+    //
+    private final static Object FLAGS_LOCK = new Object();
+
     public static void processType(@NotNull final TypeDefinition type) {
         VerifyArgument.notNull(type, "type");
 
-        if (Flags.testAny(type.getFlags(), Flags.DEOBFUSCATED)) {
+        if (!addFlags(type, Flags.DEOBFUSCATED)) {
             return;
         }
 
-        type.setFlags(type.getFlags() | Flags.DEOBFUSCATED);
-
         flagAnonymousEnumDefinitions(type);
     }
 
+    private static boolean addFlags(final TypeDefinition type, final long flags) {
+        synchronized (FLAGS_LOCK) {
+            final long oldFlags = type.getFlags();
+
+            if (Flags.testAll(oldFlags, flags)) {
+                return false;
+            }
+
+            type.setFlags(oldFlags | flags);
+            return true;
+        }
+    }
+
     private static void flagAnonymousEnumDefinitions(final TypeDefinition type) {
         if (!type.isEnum() || type.getDeclaringType() != null) {
             return;
@@ -85,7 +103,7 @@ public class DeobfuscationUtilities {
                     instantiatedTypeResolved.setDeclaringType(type);
                     type.getDeclaredTypesInternal().add(instantiatedTypeResolved);
 
-                    instantiatedTypeResolved.setFlags(instantiatedTypeResolved.getFlags() | Flags.ANONYMOUS);
+                    addFlags(instantiatedTypeResolved, Flags.ANONYMOUS);
                 }
             }
         }
@@ -0,0 +1,79 @@
+/*
+ * InstrumentedTypeLoader.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+import com.strobel.core.VerifyArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A type loader which counts the requests made of another loader, how many it satisfied, how
+ * many bytes it returned, and how long it took.  Times include any loaders the delegate consults
+ * in turn; wrap those too to see where the time goes.
+ */
+public final class InstrumentedTypeLoader implements ITypeLoader {
+    private final String _name;
+    private final ITypeLoader _typeLoader;
+    private final AtomicLong _hitCount;
+    private final AtomicLong _missCount;
+    private final AtomicLong _bytesRead;
+    private final AtomicLong _elapsedNanos;
+
+    public InstrumentedTypeLoader(final String name, final ITypeLoader typeLoader) {
+        _name = VerifyArgument.notNull(name, "name");
+        _typeLoader = VerifyArgument.notNull(typeLoader, "typeLoader");
+        _hitCount = new AtomicLong();
+        _missCount = new AtomicLong();
+        _bytesRead = new AtomicLong();
+        _elapsedNanos = new AtomicLong();
+    }
+
+    public final String getName() {
+        return _name;
+    }
+
+    public final ITypeLoader getTypeLoader() {
+        return _typeLoader;
+    }
+
+    /**
+     * Returns a snapshot of this loader's counters.  Counters are updated independently, so a
+     * snapshot taken while loads are in progress may be off by the loads in flight.
+     */
+    public final TypeLoaderStatistics getStatistics() {
+        return new TypeLoaderStatistics(
+            _name,
+            _hitCount.get(),
+            _missCount.get(),
+            _bytesRead.get(),
+            _elapsedNanos.get()
+        );
+    }
+
+    @Override
+    public boolean tryLoadType(final String internalName, final Buffer buffer) {
+        final long start = System.nanoTime();
+        final boolean result = _typeLoader.tryLoadType(internalName, buffer);
+
+        _elapsedNanos.addAndGet(System.nanoTime() - start);
+
+        if (result) {
+            _hitCount.incrementAndGet();
+            _bytesRead.addAndGet(buffer.size());
+        }
+        else {
+            _missCount.incrementAndGet();
+        }
+
+        return result;
+    }
+}
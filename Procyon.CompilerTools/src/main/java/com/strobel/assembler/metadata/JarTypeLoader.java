@@ -16,14 +16,13 @@
 
 package com.strobel.assembler.metadata;
 
-import com.strobel.assembler.ir.ConstantPool;
 import com.strobel.core.ExceptionUtilities;
 import com.strobel.core.VerifyArgument;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
@@ -37,7 +36,7 @@ public class JarTypeLoader implements ITypeLoader {
 
     public JarTypeLoader(final JarFile jarFile) {
         _jarFile = VerifyArgument.notNull(jarFile, "jarFile");
-        _knownMappings = new HashMap<>();
+        _knownMappings = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -56,26 +55,28 @@ public class JarTypeLoader implements ITypeLoader {
                        !mappedName.equals(internalName) && tryLoadType(mappedName, buffer);
             }
 
-            final InputStream inputStream = _jarFile.getInputStream(entry);
+            try (final InputStream inputStream = _jarFile.getInputStream(entry)) {
+                final long entrySize = entry.getSize();
 
-            int remainingBytes = inputStream.available();
+                int remainingBytes = entrySize >= 0 ? (int) entrySize : inputStream.available();
 
-            buffer.reset(remainingBytes);
+                buffer.reset(remainingBytes);
 
-            while (remainingBytes > 0) {
-                final int bytesRead = inputStream.read(buffer.array(), buffer.position(), remainingBytes);
+                while (remainingBytes > 0) {
+                    final int bytesRead = inputStream.read(buffer.array(), buffer.position(), remainingBytes);
 
-                if (bytesRead < 0) {
-                    break;
+                    if (bytesRead < 0) {
+                        break;
+                    }
+
+                    buffer.position(buffer.position() + bytesRead);
+                    remainingBytes -= bytesRead;
                 }
 
-                buffer.position(buffer.position() + bytesRead);
-                remainingBytes -= bytesRead;
+                buffer.position(0);
             }
 
-            buffer.position(0);
-
-            final String actualName = getInternalNameFromClassFile(buffer);
+            final String actualName = ClassFileReader.readInternalName(buffer);
 
             if (actualName != null && !actualName.equals(internalName)) {
                 _knownMappings.put(actualName, internalName);
@@ -91,25 +92,4 @@ public class JarTypeLoader implements ITypeLoader {
             throw ExceptionUtilities.asRuntimeException(e);
         }
     }
-
-    private static String getInternalNameFromClassFile(final Buffer b) {
-        final long magic = b.readInt() & 0xFFFFFFFFL;
-
-        if (magic != 0xCAFEBABEL) {
-            return null;
-        }
-
-        b.readUnsignedShort(); // minor version
-        b.readUnsignedShort(); // major version
-
-        final ConstantPool constantPool = ConstantPool.read(b);
-
-        b.readUnsignedShort(); // access flags
-
-        final ConstantPool.TypeInfoEntry thisClass = constantPool.getEntry(b.readUnsignedShort());
-
-        b.position(0);
-
-        return thisClass.getName();
-    }
 }
@@ -0,0 +1,202 @@
+/*
+ * JrtTypeLoader.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+import com.strobel.core.ExceptionUtilities;
+import com.strobel.core.VerifyArgument;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A type loader which reads classes from a Java runtime image (the {@code lib/modules} file of a
+ * JDK 9+ installation) through the {@code jrt:/} file system.  The package to module mapping is
+ * read once, up front, so each lookup goes directly to the one module which may contain the type.
+ */
+public final class JrtTypeLoader implements ITypeLoader {
+    private final static Logger LOG = Logger.getLogger(JrtTypeLoader.class.getSimpleName());
+
+    private final static URI JRT_URI = URI.create("jrt:/");
+
+    private final Path _modulesRoot;
+    private final Map<String, String> _packageModules;
+
+    /**
+     * Creates a type loader for the runtime image of the running JVM.
+     *
+     * @throws IllegalStateException if the running JVM does not provide a {@code jrt:/} file system.
+     */
+    public JrtTypeLoader() {
+        this(getRuntimeFileSystem());
+    }
+
+    /**
+     * Creates a type loader for the runtime image exposed by {@code fileSystem}, e.g., one created
+     * for another JDK installation with {@code FileSystems.newFileSystem(URI.create("jrt:/"), env)}.
+     */
+    public JrtTypeLoader(final FileSystem fileSystem) {
+        VerifyArgument.notNull(fileSystem, "fileSystem");
+
+        _modulesRoot = fileSystem.getPath("/modules");
+
+        try {
+            _packageModules = buildPackageIndex(fileSystem);
+        }
+        catch (final IOException e) {
+            throw ExceptionUtilities.asRuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns whether {@code packageName} (in internal form, e.g., {@code java/lang}) belongs to a
+     * module in this runtime image.  A platform package lives in exactly one module, so if this
+     * returns {@code true}, the result of {@link #tryLoadType} for types in that package is final.
+     */
+    public boolean containsPackage(final String packageName) {
+        return _packageModules.containsKey(packageName);
+    }
+
+    public Map<String, String> getPackageModules() {
+        return Collections.unmodifiableMap(_packageModules);
+    }
+
+    @Override
+    public boolean tryLoadType(final String internalName, final Buffer buffer) {
+        VerifyArgument.notNull(internalName, "internalName");
+        VerifyArgument.notNull(buffer, "buffer");
+
+        final int packageEnd = internalName.lastIndexOf('/');
+
+        if (packageEnd <= 0) {
+            return false;
+        }
+
+        final String module = _packageModules.get(internalName.substring(0, packageEnd));
+
+        if (module == null) {
+            return false;
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Attempting to load type: " + internalName + " from module " + module + "...");
+        }
+
+        final Path path = _modulesRoot.resolve(module).resolve(internalName + ".class");
+
+        try (final SeekableByteChannel channel = Files.newByteChannel(path)) {
+            final long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                return false;
+            }
+
+            buffer.reset((int) size);
+
+            final ByteBuffer target = ByteBuffer.wrap(buffer.array(), 0, (int) size);
+
+            while (target.hasRemaining()) {
+                if (channel.read(target) < 0) {
+                    return false;
+                }
+            }
+
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Type loaded from " + path.toUri() + ".");
+            }
+
+            return true;
+        }
+        catch (final NoSuchFileException ignored) {
+            return false;
+        }
+        catch (final IOException e) {
+            throw ExceptionUtilities.asRuntimeException(e);
+        }
+    }
+
+    private static Map<String, String> buildPackageIndex(final FileSystem fileSystem) throws IOException {
+        final Map<String, String> packageModules = new HashMap<>();
+
+        //
+        // The image lists each package under /packages/<package>/<module>, which saves us from
+        // walking every module's directory tree.
+        //
+
+        try (final DirectoryStream<Path> packages = Files.newDirectoryStream(fileSystem.getPath("/packages"))) {
+            for (final Path packagePath : packages) {
+                final String packageName = packagePath.getFileName().toString().replace('.', '/');
+
+                try (final DirectoryStream<Path> modules = Files.newDirectoryStream(packagePath)) {
+                    for (final Path modulePath : modules) {
+                        packageModules.put(packageName, modulePath.getFileName().toString());
+                        break;
+                    }
+                }
+            }
+        }
+
+        return packageModules;
+    }
+
+    private static FileSystem getRuntimeFileSystem() {
+        try {
+            return FileSystems.getFileSystem(JRT_URI);
+        }
+        catch (final RuntimeException e) {
+            throw new IllegalStateException("The jrt:/ file system is not available in this runtime.", e);
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Runtime Image">
+
+    /**
+     * Returns a shared loader for the runtime image of the running JVM, or {@code null} if the
+     * running JVM does not have one (i.e., it predates Java 9).
+     */
+    static JrtTypeLoader runtimeTypeLoader() {
+        return RuntimeImage.TYPE_LOADER;
+    }
+
+    private final static class RuntimeImage {
+        final static JrtTypeLoader TYPE_LOADER;
+
+        static {
+            JrtTypeLoader typeLoader = null;
+
+            try {
+                typeLoader = new JrtTypeLoader();
+            }
+            catch (final RuntimeException e) {
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.log(Level.FINE, "Runtime image is not available; falling back to the class loader.", e);
+                }
+            }
+
+            TYPE_LOADER = typeLoader;
+        }
+    }
+
+    // </editor-fold>
+}
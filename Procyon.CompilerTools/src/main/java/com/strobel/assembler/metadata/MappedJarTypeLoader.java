@@ -0,0 +1,348 @@
+/*
+ * MappedJarTypeLoader.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+import com.strobel.core.ExceptionUtilities;
+import com.strobel.core.VerifyArgument;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A type loader which memory maps a jar file and reads its central directory once, up front,
+ * into a compact index of class entries.  Lookups are a single hash probe; stored entries are
+ * copied straight out of the mapping (or wrapped without copying, if the caller supplies a
+ * {@link NioBuffer}), and deflated entries are inflated directly into the caller's
+ * {@link Buffer}.
+ * <p>
+ * Every offset and length read from the archive is checked against the mapping, so a corrupt or
+ * truncated archive results in a {@link ZipException} rather than a buffer underflow.
+ */
+public class MappedJarTypeLoader implements ITypeLoader, Closeable {
+    private final static Logger LOG = Logger.getLogger(MappedJarTypeLoader.class.getSimpleName());
+
+    private final static int LOCAL_HEADER_SIGNATURE = 0x04034B50;
+    private final static int CENTRAL_HEADER_SIGNATURE = 0x02014B50;
+    private final static int END_HEADER_SIGNATURE = 0x06054B50;
+
+    private final static int END_HEADER_SIZE = 22;
+    private final static int CENTRAL_HEADER_SIZE = 46;
+    private final static int LOCAL_HEADER_SIZE = 30;
+    private final static int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private final static int METHOD_STORED = 0;
+    private final static int METHOD_DEFLATED = 8;
+
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final static ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final static ThreadLocal<byte[][]> INPUT_BUFFERS = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][] { new byte[8192] };
+        }
+    };
+
+    private final String _name;
+    private final Map<String, Integer> _index;
+    private final Map<String, String> _knownMappings;
+
+    //
+    // Entry data, indexed by the values in _index.
+    //
+    private final int[] _headerOffsets;
+    private final int[] _compressedSizes;
+    private final int[] _sizes;
+    private final byte[] _methods;
+
+    //
+    // Cleared when the loader is closed.  There is no supported way to unmap a buffer, so the
+    // mapping itself is released once it (and any buffers wrapping it) become unreachable.
+    //
+    private volatile MappedByteBuffer _mapping;
+
+    public MappedJarTypeLoader(final File jarFile) throws IOException {
+        VerifyArgument.notNull(jarFile, "jarFile");
+
+        _name = jarFile.getPath();
+        _knownMappings = new ConcurrentHashMap<>();
+
+        try (final RandomAccessFile file = new RandomAccessFile(jarFile, "r");
+             final FileChannel channel = file.getChannel()) {
+
+            final long length = channel.size();
+
+            if (length > Integer.MAX_VALUE) {
+                throw new ZipException("Archive is too large to be memory mapped: " + _name);
+            }
+
+            _mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            _mapping.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        final ByteBuffer m = _mapping;
+        final int endHeader = findEndHeader(m);
+
+        final int entryCount = m.getShort(endHeader + 10) & 0xFFFF;
+        final long directoryOffset = m.getInt(endHeader + 16) & 0xFFFFFFFFL;
+
+        if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 archives are not supported: " + _name);
+        }
+
+        checkBounds(m, directoryOffset, 0, "central directory");
+
+        _index = new HashMap<>(entryCount * 2);
+        _headerOffsets = new int[entryCount];
+        _compressedSizes = new int[entryCount];
+        _sizes = new int[entryCount];
+        _methods = new byte[entryCount];
+
+        int position = (int) directoryOffset;
+        int classCount = 0;
+
+        for (int i = 0; i < entryCount; i++) {
+            checkBounds(m, position, CENTRAL_HEADER_SIZE, "central directory entry");
+
+            if (m.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry in " + _name);
+            }
+
+            final int method = m.getShort(position + 10) & 0xFFFF;
+            final long compressedSize = m.getInt(position + 20) & 0xFFFFFFFFL;
+            final long size = m.getInt(position + 24) & 0xFFFFFFFFL;
+            final int nameLength = m.getShort(position + 28) & 0xFFFF;
+            final int extraLength = m.getShort(position + 30) & 0xFFFF;
+            final int commentLength = m.getShort(position + 32) & 0xFFFF;
+            final long headerOffset = m.getInt(position + 42) & 0xFFFFFFFFL;
+
+            checkBounds(m, position + CENTRAL_HEADER_SIZE, nameLength + extraLength + commentLength, "central directory entry");
+
+            if (isClassFileName(m, position + CENTRAL_HEADER_SIZE, nameLength) &&
+                (method == METHOD_STORED || method == METHOD_DEFLATED) &&
+                size < Integer.MAX_VALUE &&
+                compressedSize < Integer.MAX_VALUE) {
+
+                final String internalName = readName(m, position + CENTRAL_HEADER_SIZE, nameLength - 6);
+
+                checkBounds(m, headerOffset, LOCAL_HEADER_SIZE, "local file header");
+
+                _headerOffsets[classCount] = (int) headerOffset;
+                _compressedSizes[classCount] = (int) compressedSize;
+                _sizes[classCount] = (int) size;
+                _methods[classCount] = (byte) method;
+                _index.put(internalName, classCount++);
+            }
+
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    public final String getName() {
+        return _name;
+    }
+
+    /**
+     * Releases this loader's reference to the archive mapping.  Loading types from a closed
+     * loader fails with an {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        _mapping = null;
+    }
+
+    @Override
+    public boolean tryLoadType(final String internalName, final Buffer buffer) {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Attempting to load type: " + internalName + "...");
+        }
+
+        final Integer entry = _index.get(internalName);
+
+        if (entry == null) {
+            final String mappedName = _knownMappings.get(internalName);
+
+            return mappedName != null &&
+                   !mappedName.equals(internalName) && tryLoadType(mappedName, buffer);
+        }
+
+        try {
+            readEntry(entry, buffer);
+        }
+        catch (final IOException e) {
+            throw ExceptionUtilities.asRuntimeException(e);
+        }
+
+        final String actualName = ClassFileReader.readInternalName(buffer);
+
+        if (actualName != null && !actualName.equals(internalName)) {
+            _knownMappings.put(actualName, internalName);
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Type loaded from " + _name + "!" + internalName + ".class.");
+        }
+
+        return true;
+    }
+
+    private void readEntry(final int entry, final Buffer buffer) throws IOException {
+        final MappedByteBuffer mapping = _mapping;
+
+        if (mapping == null) {
+            throw new IllegalStateException("Type loader has been closed: " + _name);
+        }
+
+        final ByteBuffer m = mapping.duplicate();
+        final int headerOffset = _headerOffsets[entry];
+
+        m.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (m.getInt(headerOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local file header in " + _name);
+        }
+
+        final int dataOffset = headerOffset +
+                               LOCAL_HEADER_SIZE +
+                               (m.getShort(headerOffset + 26) & 0xFFFF) +
+                               (m.getShort(headerOffset + 28) & 0xFFFF);
+
+        final int size = _sizes[entry];
+        final int compressedSize = _compressedSizes[entry];
+
+        if (_methods[entry] == METHOD_STORED && compressedSize != size) {
+            throw new ZipException("Invalid stored entry size in " + _name);
+        }
+
+        checkBounds(m, dataOffset, compressedSize, "entry data");
+
+        if (_methods[entry] == METHOD_STORED && buffer instanceof NioBuffer) {
+            //
+            // Stored entries can be read straight out of the mapping.
+            //
+            m.position(dataOffset);
+            m.limit(dataOffset + size);
+            ((NioBuffer) buffer).wrap(m);
+            return;
+        }
+
+        buffer.reset(size);
+
+        if (size == 0) {
+            return;
+        }
+
+        m.position(dataOffset);
+
+        if (_methods[entry] == METHOD_STORED) {
+            m.get(buffer.array(), 0, size);
+            return;
+        }
+
+        final byte[][] inputHolder = INPUT_BUFFERS.get();
+
+        if (inputHolder[0].length < compressedSize) {
+            inputHolder[0] = new byte[Math.max(compressedSize, inputHolder[0].length * 2)];
+        }
+
+        final byte[] input = inputHolder[0];
+        final Inflater inflater = INFLATERS.get();
+
+        m.get(input, 0, compressedSize);
+
+        inflater.reset();
+        inflater.setInput(input, 0, compressedSize);
+
+        try {
+            int offset = 0;
+
+            while (offset < size) {
+                final int n = inflater.inflate(buffer.array(), offset, size - offset);
+
+                if (n == 0) {
+                    break;
+                }
+
+                offset += n;
+            }
+
+            if (offset != size) {
+                throw new ZipException("Truncated entry data in " + _name);
+            }
+        }
+        catch (final DataFormatException e) {
+            throw new ZipException("Invalid entry data in " + _name + ": " + e.getMessage());
+        }
+    }
+
+    private static int findEndHeader(final ByteBuffer m) throws ZipException {
+        final int limit = m.limit();
+        final int lowest = Math.max(0, limit - END_HEADER_SIZE - MAX_COMMENT_LENGTH);
+
+        for (int position = limit - END_HEADER_SIZE; position >= lowest; position--) {
+            if (m.getInt(position) == END_HEADER_SIGNATURE) {
+                return position;
+            }
+        }
+
+        throw new ZipException("Could not locate the end of the central directory.");
+    }
+
+    private void checkBounds(final ByteBuffer m, final long offset, final long length, final String what)
+        throws ZipException {
+
+        if (offset < 0 || length < 0 || offset + length > m.limit()) {
+            throw new ZipException("Invalid " + what + " offset or length in " + _name);
+        }
+    }
+
+    private static boolean isClassFileName(final ByteBuffer m, final int offset, final int length) {
+        return length > 6 &&
+               m.get(offset + length - 6) == '.' &&
+               m.get(offset + length - 5) == 'c' &&
+               m.get(offset + length - 4) == 'l' &&
+               m.get(offset + length - 3) == 'a' &&
+               m.get(offset + length - 2) == 's' &&
+               m.get(offset + length - 1) == 's';
+    }
+
+    private static String readName(final ByteBuffer m, final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            bytes[i] = m.get(offset + i);
+        }
+
+        return new String(bytes, UTF_8);
+    }
+}
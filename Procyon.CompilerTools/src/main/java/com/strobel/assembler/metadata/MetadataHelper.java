@@ -234,6 +234,27 @@ public final class MetadataHelper {
     }
 
     private static TypeReference findCommonSuperTypeCore(final TypeReference type1, final TypeReference type2) {
+        final TypeRelationCache cache = TypeRelationCache.find(type1, type2);
+
+        if (cache == null) {
+            return findCommonSuperTypeUncached(type1, type2);
+        }
+
+        final TypeRelationCache.Key key = TypeRelationCache.key(TypeRelationCache.COMMON_SUPER_TYPE, type1, type2);
+        final Object cached = cache.get(key);
+
+        if (cached != null) {
+            return TypeRelationCache.toTypeResult(cached, type1, type2);
+        }
+
+        final TypeReference result = findCommonSuperTypeUncached(type1, type2);
+
+        cache.put(key, result);
+
+        return result;
+    }
+
+    private static TypeReference findCommonSuperTypeUncached(final TypeReference type1, final TypeReference type2) {
         if (isAssignableFrom(type1, type2)) {
             if (type2.isGenericType() && !type1.isGenericType()) {
                 final TypeDefinition resolved1 = type1.resolve();
@@ -724,7 +745,24 @@ public final class MetadataHelper {
         VerifyArgument.notNull(subType, "t");
         VerifyArgument.notNull(type, "s");
 
-        return AS_SUPER_VISITOR.visit(subType, type);
+        final TypeRelationCache cache = TypeRelationCache.find(subType, type);
+
+        if (cache == null) {
+            return AS_SUPER_VISITOR.visit(subType, type);
+        }
+
+        final TypeRelationCache.Key key = TypeRelationCache.key(TypeRelationCache.AS_SUPER, subType, type);
+        final Object cached = cache.get(key);
+
+        if (cached != null) {
+            return TypeRelationCache.toTypeResult(cached, subType, type);
+        }
+
+        final TypeReference result = AS_SUPER_VISITOR.visit(subType, type);
+
+        cache.put(key, result);
+
+        return result;
     }
 
     @SuppressWarnings("ConstantConditions")
@@ -1277,6 +1315,32 @@ public final class MetadataHelper {
             return false;
         }
 
+        final TypeRelationCache cache = TypeRelationCache.find(type, baseType);
+
+        if (cache == null) {
+            return isSubTypeCore(type, baseType, capture);
+        }
+
+        final TypeRelationCache.Key key = TypeRelationCache.key(
+            capture ? TypeRelationCache.IS_SUBTYPE : TypeRelationCache.IS_SUBTYPE_NO_CAPTURE,
+            type,
+            baseType
+        );
+
+        final Object cached = cache.get(key);
+
+        if (cached != null) {
+            return (Boolean) cached;
+        }
+
+        final boolean result = isSubTypeCore(type, baseType, capture);
+
+        cache.put(key, result);
+
+        return result;
+    }
+
+    private static boolean isSubTypeCore(final TypeReference type, final TypeReference baseType, final boolean capture) {
         if (baseType instanceof CompoundTypeReference) {
             final CompoundTypeReference c = (CompoundTypeReference) baseType;
 
@@ -46,6 +46,7 @@ public final class MetadataParser {
 
     private final IMetadataResolver _resolver;
     private final SignatureParser _signatureParser;
+    private final SignatureCache _signatureCache;
     private final Stack<IGenericContext> _genericContexts;
     private final CoreMetadataFactory _factory;
     private final AtomicInteger _suppressResolveDepth;
@@ -57,6 +58,7 @@ public final class MetadataParser {
     public MetadataParser(final IMetadataResolver resolver) {
         _resolver = VerifyArgument.notNull(resolver, "resolver");
         _signatureParser = SignatureParser.make();
+        _signatureCache = getSignatureCache(_resolver);
         _genericContexts = new Stack<>();
         _factory = CoreMetadataFactory.make(resolver, new StackBasedGenericContext());
         _suppressResolveDepth = new AtomicInteger();
@@ -67,11 +69,16 @@ public final class MetadataParser {
 
         _resolver = owner.getResolver() != null ? owner.getResolver() : MetadataSystem.instance();
         _signatureParser = SignatureParser.make();
+        _signatureCache = getSignatureCache(_resolver);
         _genericContexts = new Stack<>();
         _factory = CoreMetadataFactory.make(owner, new StackBasedGenericContext());
         _suppressResolveDepth = new AtomicInteger();
     }
 
+    private static SignatureCache getSignatureCache(final IMetadataResolver resolver) {
+        return resolver instanceof MetadataSystem ? ((MetadataSystem) resolver).getSignatureCache() : null;
+    }
+
     public final SafeCloseable suppressTypeResolution() {
         _suppressResolveDepth.incrementAndGet();
 
@@ -128,7 +135,8 @@ public final class MetadataParser {
     public TypeReference parseTypeSignature(final String signature) {
         VerifyArgument.notNull(signature, "signature");
 
-        final TypeSignature typeSignature = _signatureParser.parseTypeSignature(signature);
+        final TypeSignature typeSignature = _signatureCache != null ? _signatureCache.parseTypeSignature(_signatureParser, signature)
+                                                                    : _signatureParser.parseTypeSignature(signature);
         final Reifier reifier = Reifier.make(_factory);
 
         typeSignature.accept(reifier);
@@ -231,7 +239,8 @@ public final class MetadataParser {
     public IMethodSignature parseMethodSignature(final String signature) {
         VerifyArgument.notNull(signature, "signature");
 
-        final MethodTypeSignature methodTypeSignature = _signatureParser.parseMethodSignature(signature);
+        final MethodTypeSignature methodTypeSignature = _signatureCache != null ? _signatureCache.parseMethodSignature(_signatureParser, signature)
+                                                                                : _signatureParser.parseMethodSignature(signature);
         final Reifier reifier = Reifier.make(_factory);
 
         final TypeReference returnType;
@@ -339,7 +348,8 @@ public final class MetadataParser {
     public IClassSignature parseClassSignature(final String signature) {
         VerifyArgument.notNull(signature, "signature");
 
-        final ClassSignature classSignature = _signatureParser.parseClassSignature(signature);
+        final ClassSignature classSignature = _signatureCache != null ? _signatureCache.parseClassSignature(_signatureParser, signature)
+                                                                      : _signatureParser.parseClassSignature(signature);
         final Reifier reifier = Reifier.make(_factory);
 
         final TypeReference baseType;
@@ -22,21 +22,44 @@ import com.strobel.core.VerifyArgument;
 
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Mike Strobel
  */
 public abstract class MetadataResolver implements IMetadataResolver, IGenericContext {
-    private final Stack<IResolverFrame> _frames;
+    private final static int MAX_RESOLVED_MEMBERS = 1 << 17;
+
+    //
+    // Resolver frames are pushed and popped while reading a class, so they are tracked per
+    // thread.  This allows a single resolver (and its type cache) to serve multiple threads.
+    //
+    private final ThreadLocal<Stack<IResolverFrame>> _frames;
+
+    //
+    // Resolved field and method references, including those found in a base type or interface,
+    // keyed by the declaring type, name, and erased signature of the reference.  An entry goes
+    // stale when the type declaring the member is evicted (see TypeDefinition.isEvicted()), and
+    // is dropped the next time it is looked up.
+    //
+    private final ConcurrentHashMap<MemberKey, MemberReference> _resolvedMembers;
 
     protected MetadataResolver() {
-        _frames = new Stack<>();
+        _frames = new ThreadLocal<Stack<IResolverFrame>>() {
+            @Override
+            protected Stack<IResolverFrame> initialValue() {
+                return new Stack<>();
+            }
+        };
+        _resolvedMembers = new ConcurrentHashMap<>();
     }
 
     @Override
     public final TypeReference lookupType(final String descriptor) {
-        for (int i = _frames.size() - 1; i >= 0; i--) {
-            final TypeReference type = _frames.get(i).findType(descriptor);
+        final Stack<IResolverFrame> frames = _frames.get();
+
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            final TypeReference type = frames.get(i).findType(descriptor);
 
             if (type != null) {
                 return type;
@@ -48,8 +71,10 @@ public abstract class MetadataResolver implements IMetadataResolver, IGenericCon
 
     @Override
     public final GenericParameter findTypeVariable(final String name) {
-        for (int i = _frames.size() - 1; i >= 0; i--) {
-            final GenericParameter type = _frames.get(i).findTypeVariable(name);
+        final Stack<IResolverFrame> frames = _frames.get();
+
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            final GenericParameter type = frames.get(i).findTypeVariable(name);
 
             if (type != null) {
                 return type;
@@ -63,23 +88,25 @@ public abstract class MetadataResolver implements IMetadataResolver, IGenericCon
 
     @Override
     public void pushFrame(final IResolverFrame frame) {
-        _frames.push(VerifyArgument.notNull(frame, "frame"));
+        _frames.get().push(VerifyArgument.notNull(frame, "frame"));
     }
 
     @Override
     public void popFrame() {
-        _frames.pop();
+        _frames.get().pop();
     }
 
     @Override
     public TypeDefinition resolve(final TypeReference type) {
         final TypeReference t = VerifyArgument.notNull(type, "type").getUnderlyingType();
 
-        if (!_frames.isEmpty()) {
+        final Stack<IResolverFrame> frames = _frames.get();
+
+        if (!frames.isEmpty()) {
             final String descriptor = type.getInternalName();
 
-            for (int i = _frames.size() - 1; i >= 0; i--) {
-                final TypeReference resolved = _frames.get(i).findType(descriptor);
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                final TypeReference resolved = frames.get(i).findType(descriptor);
 
                 if (resolved instanceof TypeDefinition) {
                     return (TypeDefinition) resolved;
@@ -108,13 +135,30 @@ public abstract class MetadataResolver implements IMetadataResolver, IGenericCon
 
     @Override
     public FieldDefinition resolve(final FieldReference field) {
-        final TypeDefinition declaringType = VerifyArgument.notNull(field, "field").getDeclaringType().resolve();
+        final TypeReference declaringType = VerifyArgument.notNull(field, "field").getDeclaringType();
+        final MemberKey key = MemberKey.tryCreate(declaringType, field);
+
+        if (key != null) {
+            final MemberReference cached = getResolvedMember(key);
+
+            if (cached instanceof FieldDefinition) {
+                return (FieldDefinition) cached;
+            }
+        }
+
+        final TypeDefinition resolvedDeclaringType = declaringType.resolve();
 
-        if (declaringType == null) {
+        if (resolvedDeclaringType == null) {
             return null;
         }
 
-        return getField(declaringType, field);
+        final FieldDefinition resolvedField = getField(resolvedDeclaringType, field);
+
+        if (resolvedField != null && key != null) {
+            cacheResolvedMember(key, resolvedField);
+        }
+
+        return resolvedField;
     }
 
     @Override
@@ -125,13 +169,54 @@ public abstract class MetadataResolver implements IMetadataResolver, IGenericCon
             declaringType = BuiltinTypes.Object;
         }
 
+        final MemberKey key = MemberKey.tryCreate(declaringType, method);
+
+        if (key != null) {
+            final MemberReference cached = getResolvedMember(key);
+
+            if (cached instanceof MethodDefinition) {
+                return (MethodDefinition) cached;
+            }
+        }
+
         final TypeDefinition resolvedDeclaringType = declaringType.resolve();
 
         if (resolvedDeclaringType == null) {
             return null;
         }
 
-        return getMethod(resolvedDeclaringType, method);
+        final MethodDefinition resolvedMethod = getMethod(resolvedDeclaringType, method);
+
+        if (resolvedMethod != null && key != null) {
+            cacheResolvedMember(key, resolvedMethod);
+        }
+
+        return resolvedMethod;
+    }
+
+    private MemberReference getResolvedMember(final MemberKey key) {
+        final MemberReference cached = _resolvedMembers.get(key);
+
+        if (cached != null &&
+            cached.getDeclaringType() instanceof TypeDefinition &&
+            ((TypeDefinition) cached.getDeclaringType()).isEvicted()) {
+
+            _resolvedMembers.remove(key, cached);
+            return null;
+        }
+
+        return cached;
+    }
+
+    private void cacheResolvedMember(final MemberKey key, final MemberReference member) {
+        //
+        // Don't cache anything while this thread is reading a class: the members of the types
+        // being read may be incomplete, so a lookup could land on an inherited member which the
+        // type being read is about to override.
+        //
+        if (_frames.get().isEmpty() && _resolvedMembers.size() < MAX_RESOLVED_MEMBERS) {
+            _resolvedMembers.putIfAbsent(key, member);
+        }
     }
 
     // <editor-fold defaultstate="collapsed" desc="Member Resolution Helpers">
@@ -140,7 +225,7 @@ public abstract class MetadataResolver implements IMetadataResolver, IGenericCon
         TypeDefinition type = declaringType;
 
         while (type != null) {
-            final FieldDefinition field = getField(type.getDeclaredFields(), reference);
+            final FieldDefinition field = type.findDeclaredField(reference);
 
             if (field != null) {
                 return field;
@@ -161,7 +246,7 @@ public abstract class MetadataResolver implements IMetadataResolver, IGenericCon
     final MethodDefinition getMethod(final TypeDefinition declaringType, final MethodReference reference) {
         TypeDefinition type = declaringType;
 
-        MethodDefinition method = getMethod(type.getDeclaredMethods(), reference);
+        MethodDefinition method = type.findDeclaredMethod(reference);
 
         if (method != null) {
             return method;
@@ -196,6 +281,66 @@ public abstract class MetadataResolver implements IMetadataResolver, IGenericCon
         return null;
     }
 
+    private final static class MemberKey {
+        final String declaringType;
+        final String name;
+        final String signature;
+        final int hashCode;
+
+        private MemberKey(final String declaringType, final String name, final String signature) {
+            this.declaringType = declaringType;
+            this.name = name;
+            this.signature = signature;
+            this.hashCode = 31 * (31 * declaringType.hashCode() + name.hashCode()) + signature.hashCode();
+        }
+
+        static MemberKey tryCreate(final TypeReference declaringType, final MemberReference member) {
+            //
+            // Members of type variables, wildcards, and intersection types are resolved against
+            // their bounds, which depend on the context they came from; don't cache those.
+            //
+            if (declaringType == null ||
+                declaringType.isGenericParameter() ||
+                declaringType.isWildcardType() ||
+                declaringType instanceof CompoundTypeReference) {
+
+                return null;
+            }
+
+            final String typeName = declaringType.getInternalName();
+            final String name = member.getName();
+
+            if (typeName == null || name == null) {
+                return null;
+            }
+
+            return new MemberKey(typeName, name, member.getErasedSignature());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof MemberKey)) {
+                return false;
+            }
+
+            final MemberKey other = (MemberKey) o;
+
+            return hashCode == other.hashCode &&
+                   name.equals(other.name) &&
+                   signature.equals(other.signature) &&
+                   declaringType.equals(other.declaringType);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     static TypeDefinition getNestedType(final List<TypeDefinition> candidates, final TypeReference reference) {
         for (int i = 0, n = candidates.size(); i < n; i++) {
             final TypeDefinition candidate = candidates.get(i);
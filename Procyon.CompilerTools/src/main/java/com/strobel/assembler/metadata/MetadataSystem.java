@@ -16,22 +16,99 @@
 
 package com.strobel.assembler.metadata;
 
+import com.strobel.assembler.Collection;
 import com.strobel.compilerservices.RuntimeHelpers;
+import com.strobel.core.ExceptionUtilities;
 import com.strobel.core.Fences;
+import com.strobel.core.StringUtilities;
 import com.strobel.core.VerifyArgument;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Mike Strobel
  */
 public class MetadataSystem extends MetadataResolver {
+    private final static int MIN_RESIDENT_TYPES = 64;
+
+    //
+    // Class file buffers are reused from one load to the next.  Loads nest (reading a class may
+    // resolve, and therefore load, other classes), so each thread keeps a small stack of buffers
+    // rather than a single one.  Buffers never outlive a load: the class reader copies whatever
+    // it needs to retain.
+    //
+    private final static int MAX_POOLED_BUFFERS = 8;
+    private final static int MAX_POOLED_BUFFER_CAPACITY = 1024 * 1024;
+
+    private final static ThreadLocal<ArrayDeque<PooledBuffer>> BUFFER_POOL = new ThreadLocal<ArrayDeque<PooledBuffer>>() {
+        @Override
+        protected ArrayDeque<PooledBuffer> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+
+    //
+    // Reading a class may load other classes, so each thread tracks the total time it has spent in
+    // loadType().  That lets an outer load subtract the time its nested loads took from its own.
+    //
+    private final static ThreadLocal<long[]> LOAD_NANOS = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
     private static MetadataSystem _instance;
 
     private final ConcurrentHashMap<String, TypeDefinition> _types;
+    private final ConcurrentHashMap<String, PendingTypeLoad> _pendingTypes;
+    private final ConcurrentHashMap<Thread, PendingTypeLoad> _waitingThreads;
+    private final Set<String> _missingTypes;
+    private final AtomicLong _typeLoadCount;
+    private final AtomicLong _sharedTypeLoadCount;
+    private final AtomicLong _suppressedLookupCount;
+    private final AtomicLong _bytesLoaded;
+    private final AtomicLong _typeLoaderNanos;
+    private final AtomicLong _classReaderNanos;
+    private final SignatureCache _signatureCache;
+    private final TypeRelationCache _typeRelationCache;
+    private final MethodBodyCache _methodBodyCache;
     private final ITypeLoader _typeLoader;
 
-    private boolean _isEagerMethodLoadingEnabled;
+    //
+    // Eviction bookkeeping, keyed by top-level type name and ordered from least to most recently
+    // queued.  Nested types are charged to (and evicted with) their top-level type.  Only
+    // maintained when a cache budget has been set.  Cache hits do not reorder the queue; they
+    // only mark the type's entry as referenced (see touchType()), and referenced entries get a
+    // second chance when they come up for eviction.
+    //
+    private final LinkedHashMap<String, TypeCacheEntry> _evictionQueue;
+    private long _typeCacheSize;
+    private long _evictedTypeCount;
+
+    //
+    // Top-level types in use by some thread's working set (see pushWorkingSet()), and how many
+    // working sets are using each; these are never evicted.  Guarded by _evictionQueue.
+    //
+    private final HashMap<String, int[]> _workingSetTypes;
+    private final ThreadLocal<WorkingSet> _workingSets;
+
+    private volatile long _typeCacheBudget;
+    private volatile boolean _isEagerMethodLoadingEnabled;
+    private volatile boolean _isLazyMemberLoadingEnabled;
+    private volatile boolean _isMissingTypeCachingEnabled;
 
     public static MetadataSystem instance() {
         if (_instance == null) {
@@ -48,18 +125,28 @@ public class MetadataSystem extends MetadataResolver {
         this(new ClasspathTypeLoader());
     }
 
-    //
-    // Temporarily removing this constructor to get a Java 9 compatibility fix out quickly.
-    // Hopefully nobody is using it.  Will restore once ClasspathTypeLoader can be fleshed
-    // out to support arbitrary paths.
-    //
-//    public MetadataSystem(final String classPath) {
-//        this(new ClasspathTypeLoader(VerifyArgument.notNull(classPath, "classPath")));
-//    }
+    public MetadataSystem(final String classPath) {
+        this(new ClasspathTypeLoader(VerifyArgument.notNull(classPath, "classPath")));
+    }
 
     public MetadataSystem(final ITypeLoader typeLoader) {
         _typeLoader = VerifyArgument.notNull(typeLoader, "typeLoader");
         _types = new ConcurrentHashMap<>();
+        _pendingTypes = new ConcurrentHashMap<>();
+        _waitingThreads = new ConcurrentHashMap<>();
+        _missingTypes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        _typeLoadCount = new AtomicLong();
+        _sharedTypeLoadCount = new AtomicLong();
+        _suppressedLookupCount = new AtomicLong();
+        _bytesLoaded = new AtomicLong();
+        _typeLoaderNanos = new AtomicLong();
+        _classReaderNanos = new AtomicLong();
+        _signatureCache = new SignatureCache();
+        _typeRelationCache = new TypeRelationCache();
+        _methodBodyCache = new MethodBodyCache();
+        _evictionQueue = new LinkedHashMap<>();
+        _workingSetTypes = new HashMap<>();
+        _workingSets = new ThreadLocal<>();
     }
 
     public final boolean isEagerMethodLoadingEnabled() {
@@ -70,9 +157,321 @@ public class MetadataSystem extends MetadataResolver {
         _isEagerMethodLoadingEnabled = value;
     }
 
+    public final boolean isLazyMemberLoadingEnabled() {
+        return _isLazyMemberLoadingEnabled;
+    }
+
+    /**
+     * Sets whether the fields and methods of loaded types should be read only when they are first
+     * requested.  Many types are loaded only to answer questions about their supertypes, and never
+     * have their members inspected; deferring the members makes such types cheaper to load.
+     */
+    public final void setLazyMemberLoadingEnabled(final boolean value) {
+        _isLazyMemberLoadingEnabled = value;
+    }
+
+    public final boolean isMissingTypeCachingEnabled() {
+        return _isMissingTypeCachingEnabled;
+    }
+
+    /**
+     * Sets whether types which the type loader failed to find should be remembered, so that later
+     * requests for them fail immediately instead of probing the type loader again.  Missing types
+     * are forgotten when a definition is added for them (see {@link #addTypeDefinition}), or when
+     * {@link #clearMissingTypes()} is called, e.g., after the type loader's sources change.
+     */
+    public final void setMissingTypeCachingEnabled(final boolean value) {
+        _isMissingTypeCachingEnabled = value;
+
+        if (!value) {
+            _missingTypes.clear();
+        }
+    }
+
+    /**
+     * Forgets all types which were remembered as missing, allowing them to be probed again.
+     */
+    public final void clearMissingTypes() {
+        _missingTypes.clear();
+    }
+
+    /**
+     * Returns the number of types currently remembered as missing.
+     */
+    public final int getMissingTypeCount() {
+        return _missingTypes.size();
+    }
+
+    /**
+     * Returns the number of type requests which failed immediately because the type was already
+     * known to be missing, i.e., the number of type loader probes which were avoided.
+     */
+    public final long getSuppressedLookupCount() {
+        return _suppressedLookupCount.get();
+    }
+
+    /**
+     * Returns the maximum amount of class file data, in bytes, that this metadata system will
+     * keep cached before evicting least recently used types.  A value of zero or less means the
+     * cache is unbounded (the default).
+     */
+    public final long getTypeCacheBudget() {
+        return _typeCacheBudget;
+    }
+
+    /**
+     * Sets the maximum amount of class file data, in bytes, that this metadata system will keep
+     * cached.  When the budget is exceeded, least recently used top-level types (along with their
+     * nested types) are evicted and will be reloaded on demand.  Pinned types (see
+     * {@link #isPinned(TypeDefinition)}) are never evicted and do not count against the budget.
+     * A value of zero or less makes the cache unbounded.
+     */
+    public final void setTypeCacheBudget(final long typeCacheBudget) {
+        _typeCacheBudget = typeCacheBudget;
+
+        synchronized (_evictionQueue) {
+            if (typeCacheBudget <= 0) {
+                _evictionQueue.clear();
+                _typeCacheSize = 0;
+            }
+            else {
+                evictTypesIfNecessary();
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of class file data, in bytes, currently charged against the type
+     * cache budget.
+     */
+    public final long getTypeCacheSize() {
+        synchronized (_evictionQueue) {
+            return _typeCacheSize;
+        }
+    }
+
+    /**
+     * Returns the number of types evicted from the cache to stay within the type cache budget.
+     */
+    public final long getEvictedTypeCount() {
+        synchronized (_evictionQueue) {
+            return _evictedTypeCount;
+        }
+    }
+
+    /**
+     * Starts a working set on the current thread.  Until the matching {@link #popWorkingSet()}, the
+     * types this thread resolves are never evicted to stay within the type cache budget, so a unit
+     * of work (e.g., decompiling one type) cannot end up holding two definitions of the same type.
+     * Working sets may be nested; the types stay in use until the outermost one is popped.
+     */
+    public final void pushWorkingSet() {
+        final WorkingSet workingSet = _workingSets.get();
+
+        if (workingSet != null) {
+            ++workingSet.depth;
+        }
+        else {
+            _workingSets.set(new WorkingSet());
+        }
+    }
+
+    /**
+     * Ends the working set started by the matching {@link #pushWorkingSet()} call.
+     */
+    public final void popWorkingSet() {
+        final WorkingSet workingSet = _workingSets.get();
+
+        if (workingSet == null) {
+            throw new IllegalStateException("No working set has been pushed on this thread.");
+        }
+
+        if (--workingSet.depth > 0) {
+            return;
+        }
+
+        _workingSets.remove();
+
+        if (workingSet.types.isEmpty()) {
+            return;
+        }
+
+        synchronized (_evictionQueue) {
+            for (final String key : workingSet.types) {
+                final int[] useCount = _workingSetTypes.get(key);
+
+                if (useCount != null && --useCount[0] == 0) {
+                    _workingSetTypes.remove(key);
+                }
+            }
+
+            evictTypesIfNecessary();
+        }
+    }
+
+    /**
+     * Returns whether a type should be exempt from eviction.  By default, all types in the
+     * {@code java} package hierarchy are pinned, as nearly every class refers to them.
+     */
+    protected boolean isPinned(final TypeDefinition type) {
+        return StringUtilities.startsWith(type.getInternalName(), "java/");
+    }
+
+    /**
+     * Returns the number of class files this metadata system has read from its type loader.
+     */
+    public final long getTypeLoadCount() {
+        return _typeLoadCount.get();
+    }
+
+    /**
+     * Returns the number of type requests which were satisfied by waiting on another thread
+     * that was already loading the same type, rather than loading the type again.
+     */
+    public final long getSharedTypeLoadCount() {
+        return _sharedTypeLoadCount.get();
+    }
+
+    final SignatureCache getSignatureCache() {
+        return _signatureCache;
+    }
+
+    /**
+     * Returns the number of descriptors and signatures whose parsed form was found in this
+     * metadata system's signature cache.
+     */
+    public final long getSignatureCacheHitCount() {
+        return _signatureCache.getHitCount();
+    }
+
+    /**
+     * Returns the number of descriptors and signatures which had to be parsed because they were
+     * not found in this metadata system's signature cache.
+     */
+    public final long getSignatureCacheMissCount() {
+        return _signatureCache.getMissCount();
+    }
+
+    final TypeRelationCache getTypeRelationCache() {
+        return _typeRelationCache;
+    }
+
+    /**
+     * Returns the number of type relation queries (subtype tests, supertype projections, and
+     * common supertype searches) answered from this metadata system's type relation cache.
+     */
+    public final long getTypeRelationCacheHitCount() {
+        return _typeRelationCache.getHitCount();
+    }
+
+    /**
+     * Returns the number of cacheable type relation queries which had to be computed.
+     */
+    public final long getTypeRelationCacheMissCount() {
+        return _typeRelationCache.getMissCount();
+    }
+
+    /**
+     * Returns the number of cached type relations discarded to keep the cache within its bounds.
+     */
+    public final long getTypeRelationCacheEvictionCount() {
+        return _typeRelationCache.getEvictionCount();
+    }
+
+    final MethodBodyCache getMethodBodyCache() {
+        return _methodBodyCache;
+    }
+
+    /**
+     * Returns how long decoded method bodies are kept; see {@link MethodBodyRetention}.
+     */
+    public final MethodBodyRetention getMethodBodyRetention() {
+        return _methodBodyCache.getRetention();
+    }
+
+    /**
+     * Sets how long decoded method bodies are kept.  The policy applies to bodies decoded from now
+     * on; bodies already decoded keep their current retention, except that switching away from
+     * {@link MethodBodyRetention#BUDGETED} releases all budgeted bodies.
+     */
+    public final void setMethodBodyRetention(final MethodBodyRetention retention) {
+        _methodBodyCache.setRetention(retention);
+    }
+
+    /**
+     * Returns the budget for {@link MethodBodyRetention#BUDGETED} retention, in bytes of bytecode.
+     */
+    public final long getMethodBodyBudget() {
+        return _methodBodyCache.getBudget();
+    }
+
+    /**
+     * Sets the budget for {@link MethodBodyRetention#BUDGETED} retention, in bytes of bytecode.
+     * A decoded body takes up many times the size of its bytecode, so size the budget accordingly.
+     * Least recently used bodies are released as soon as the budget is exceeded.
+     */
+    public final void setMethodBodyBudget(final long budget) {
+        _methodBodyCache.setBudget(budget);
+    }
+
+    /**
+     * Returns the bytecode size of the method bodies currently held under the
+     * {@link MethodBodyRetention#BUDGETED} policy.
+     */
+    public final long getMethodBodyCacheSize() {
+        return _methodBodyCache.getSize();
+    }
+
+    /**
+     * Returns the number of method bodies decoded, including bodies decoded again.
+     */
+    public final long getMethodBodyLoadCount() {
+        return _methodBodyCache.getLoadCount();
+    }
+
+    /**
+     * Returns the number of method bodies decoded again because the previously decoded body was
+     * no longer retained, either because the collector cleared it or because it was released
+     * to stay within the budget.
+     */
+    public final long getMethodBodyReloadCount() {
+        return _methodBodyCache.getReloadCount();
+    }
+
+    /**
+     * Returns the number of method bodies released to stay within the budget.
+     */
+    public final long getMethodBodyEvictionCount() {
+        return _methodBodyCache.getEvictionCount();
+    }
+
+    /**
+     * Returns a snapshot of this metadata system's load counters, timings, and cache statistics.
+     */
+    public final MetadataSystemStatistics getStatistics() {
+        return new MetadataSystemStatistics(
+            _typeLoadCount.get(),
+            _sharedTypeLoadCount.get(),
+            _suppressedLookupCount.get(),
+            getEvictedTypeCount(),
+            _bytesLoaded.get(),
+            _typeLoaderNanos.get(),
+            _classReaderNanos.get(),
+            _signatureCache.getHitCount(),
+            _signatureCache.getMissCount(),
+            _typeRelationCache.getHitCount(),
+            _typeRelationCache.getMissCount(),
+            _typeRelationCache.getEvictionCount(),
+            _methodBodyCache.getLoadCount(),
+            _methodBodyCache.getReloadCount(),
+            _methodBodyCache.getEvictionCount()
+        );
+    }
+
     public void addTypeDefinition(final TypeDefinition type) {
         VerifyArgument.notNull(type, "type");
         _types.putIfAbsent(type.getInternalName(), type);
+        _missingTypes.remove(type.getInternalName());
     }
 
     @Override
@@ -114,35 +513,464 @@ public class MetadataSystem extends MetadataResolver {
             }
         }
 
-        TypeDefinition cachedDefinition = _types.get(descriptor);
+        //
+        // Make sure only one thread loads types from a given nest (a top-level type and the types
+        // nested within it) at a time; anyone else asking for one of those types waits for the
+        // owner to finish instead of loading and parsing it again.  Outer and inner types refer
+        // to each other while they are being read, so locking individual types would let two
+        // threads each hold one half of a nest and force one of them to load a duplicate.
+        //
+
+        final String nestName = getNestName(descriptor);
+
+        while (true) {
+            final TypeDefinition cachedDefinition = _types.get(descriptor);
+
+            if (cachedDefinition != null) {
+                if (_typeCacheBudget > 0) {
+                    touchType(cachedDefinition);
+                }
+                return cachedDefinition;
+            }
+
+            if (_isMissingTypeCachingEnabled && _missingTypes.contains(descriptor)) {
+                _suppressedLookupCount.incrementAndGet();
+                return null;
+            }
+
+            final PendingTypeLoad newLoad = new PendingTypeLoad(Thread.currentThread(), descriptor);
+            final PendingTypeLoad existingLoad = _pendingTypes.putIfAbsent(nestName, newLoad);
+
+            if (existingLoad != null) {
+                if (!awaitPendingLoad(existingLoad)) {
+                    //
+                    // We could not wait for the other thread without risking a deadlock, so load
+                    // the type ourselves.
+                    //
+                    return loadType(descriptor);
+                }
+
+                if (existingLoad.isCompleted() && descriptor.equals(existingLoad.descriptor)) {
+                    final TypeDefinition sharedResult = existingLoad.getResult();
+
+                    if (sharedResult != null && _typeCacheBudget > 0) {
+                        touchType(sharedResult);
+                    }
+
+                    _sharedTypeLoadCount.incrementAndGet();
+                    return sharedResult;
+                }
+
+                //
+                // The other thread loaded a different type from the nest (or failed); check the
+                // cache again, and take ownership of the nest if the type is still missing.
+                //
+
+                final TypeDefinition sharedDefinition = _types.get(descriptor);
+
+                if (sharedDefinition != null) {
+                    if (_typeCacheBudget > 0) {
+                        touchType(sharedDefinition);
+                    }
+
+                    _sharedTypeLoadCount.incrementAndGet();
+                    return sharedDefinition;
+                }
+
+                continue;
+            }
+
+            TypeDefinition result = null;
+            boolean succeeded = false;
+
+            try {
+                result = _types.get(descriptor);
+
+                if (result == null) {
+                    result = loadType(descriptor);
+                }
+                else if (_typeCacheBudget > 0) {
+                    touchType(result);
+                }
+
+                succeeded = true;
+            }
+            finally {
+                _pendingTypes.remove(nestName, newLoad);
+
+                if (succeeded) {
+                    newLoad.complete(result);
+                }
+                else {
+                    newLoad.abandon();
+                }
+            }
+
+            return result;
+        }
+    }
+
+    private static String getNestName(final String internalName) {
+        final int nestedDelimiter = internalName.indexOf('$', internalName.lastIndexOf('/') + 1);
+        return nestedDelimiter > 0 ? internalName.substring(0, nestedDelimiter) : internalName;
+    }
+
+    private TypeDefinition loadType(final String descriptor) {
+        final ArrayDeque<PooledBuffer> pool = BUFFER_POOL.get();
+        final PooledBuffer pooledBuffer = pool.pollLast();
+        final PooledBuffer buffer = pooledBuffer != null ? pooledBuffer : new PooledBuffer();
+
+        final long[] loadNanos = LOAD_NANOS.get();
+        final long nestedNanosBefore = loadNanos[0];
+        final long start = System.nanoTime();
+
+        try {
+            final boolean loaded = _typeLoader.tryLoadType(descriptor, buffer);
+            final long readStart = System.nanoTime();
+
+            _typeLoaderNanos.addAndGet(readStart - start);
+
+            if (!loaded) {
+                if (_isMissingTypeCachingEnabled) {
+                    _missingTypes.add(descriptor);
+                }
+                return null;
+            }
+
+            _typeLoadCount.incrementAndGet();
+            _bytesLoaded.addAndGet(buffer.size());
+
+            int options = ClassFileReader.OPTIONS_DEFAULT;
+
+            if (_isEagerMethodLoadingEnabled) {
+                options |= ClassFileReader.OPTION_PROCESS_CODE;
+            }
+
+            if (_isLazyMemberLoadingEnabled) {
+                options |= ClassFileReader.OPTION_LAZY_MEMBERS;
+            }
+
+            final TypeDefinition typeDefinition = ClassFileReader.readClass(options, this, buffer);
+
+            _classReaderNanos.addAndGet(System.nanoTime() - readStart - (loadNanos[0] - nestedNanosBefore));
+
+            final TypeDefinition cachedDefinition = _types.putIfAbsent(descriptor, typeDefinition);
+            typeDefinition.setTypeLoader(_typeLoader);
+
+            if (cachedDefinition != null) {
+                if (_typeCacheBudget > 0) {
+                    touchType(cachedDefinition);
+                }
+                return cachedDefinition;
+            }
+
+            if (_typeCacheBudget > 0) {
+                trackType(typeDefinition, buffer.size());
+            }
+
+            return typeDefinition;
+        }
+        finally {
+            loadNanos[0] = nestedNanosBefore + (System.nanoTime() - start);
+            buffer.clear();
 
-        if (cachedDefinition != null) {
-            return cachedDefinition;
+            if (pool.size() < MAX_POOLED_BUFFERS) {
+                pool.addLast(buffer);
+            }
         }
+    }
 
-        final Buffer buffer = new Buffer(0);
+    // <editor-fold defaultstate="collapsed" desc="Type Cache Eviction">
 
-        if (!_typeLoader.tryLoadType(descriptor, buffer)) {
-            return null;
+    private void touchType(final TypeDefinition type) {
+        //
+        // Called on every cache hit, so avoid taking the lock unless this thread's working set
+        // gains a type.  Pinned types are never tracked, and so have no entry.
+        //
+        final TypeCacheEntry entry = type.getCacheEntry();
+
+        if (entry == null) {
+            return;
         }
 
-        final TypeDefinition typeDefinition = ClassFileReader.readClass(
-            _isEagerMethodLoadingEnabled ? ClassFileReader.OPTIONS_DEFAULT | ClassFileReader.OPTION_PROCESS_CODE
-                                         : ClassFileReader.OPTIONS_DEFAULT,
-            this,
-            buffer
-        );
+        if (!entry.isReferenced) {
+            entry.isReferenced = true;
+        }
+
+        final WorkingSet workingSet = _workingSets.get();
+
+        if (workingSet != null && workingSet.types.add(entry.key)) {
+            synchronized (_evictionQueue) {
+                useInWorkingSet(entry.key);
+            }
+        }
+    }
+
+    private void trackType(final TypeDefinition type, final int size) {
+        if (isPinned(type)) {
+            return;
+        }
+
+        final String key = getTopLevelTypeName(type);
+        final WorkingSet workingSet = _workingSets.get();
+        final boolean isNewInWorkingSet = workingSet != null && workingSet.types.add(key);
+
+        synchronized (_evictionQueue) {
+            if (isNewInWorkingSet) {
+                useInWorkingSet(key);
+            }
+
+            TypeCacheEntry entry = _evictionQueue.get(key);
+
+            if (entry != null) {
+                entry.weight += size;
+                entry.isReferenced = true;
+            }
+            else {
+                _evictionQueue.put(key, entry = new TypeCacheEntry(key, size));
+            }
 
-        cachedDefinition = _types.putIfAbsent(descriptor, typeDefinition);
-        typeDefinition.setTypeLoader(_typeLoader);
+            type.setCacheEntry(entry);
 
-        if (cachedDefinition != null) {
-            return cachedDefinition;
+            _typeCacheSize += size;
+
+            evictTypesIfNecessary();
         }
+    }
 
-        return typeDefinition;
+    private void useInWorkingSet(final String key) {
+        final int[] useCount = _workingSetTypes.get(key);
+
+        if (useCount != null) {
+            ++useCount[0];
+        }
+        else {
+            _workingSetTypes.put(key, new int[] { 1 });
+        }
     }
 
+    private void evictTypesIfNecessary() {
+        final long budget = _typeCacheBudget;
+
+        if (budget <= 0) {
+            return;
+        }
+
+        //
+        // Types in a working set are skipped; evicting them could leave their users holding two
+        // definitions of the same type.  We also leave the most recently used entries resident,
+        // regardless of budget, as they would only be reloaded right away.  Caches which refer to
+        // evicted definitions check TypeDefinition.isEvicted() and drop those entries themselves.
+        //
+
+        final Iterator<TypeCacheEntry> iterator = _evictionQueue.values().iterator();
+
+        List<TypeCacheEntry> requeuedEntries = null;
+        int residentCount = _evictionQueue.size();
+
+        while (_typeCacheSize > budget && residentCount > MIN_RESIDENT_TYPES && iterator.hasNext()) {
+            final TypeCacheEntry eldest = iterator.next();
+
+            if (_workingSetTypes.containsKey(eldest.key)) {
+                continue;
+            }
+
+            iterator.remove();
+
+            if (eldest.isReferenced) {
+                //
+                // Used since it was queued; give it a second chance at the back of the queue.
+                //
+                eldest.isReferenced = false;
+
+                if (requeuedEntries == null) {
+                    requeuedEntries = new ArrayList<>();
+                }
+
+                requeuedEntries.add(eldest);
+                continue;
+            }
+
+            --residentCount;
+            _typeCacheSize -= eldest.weight;
+
+            final TypeDefinition type = _types.remove(eldest.key);
+
+            if (type != null) {
+                ++_evictedTypeCount;
+                type.markEvicted();
+                evictNestedTypes(type);
+            }
+        }
+
+        if (requeuedEntries != null) {
+            for (final TypeCacheEntry entry : requeuedEntries) {
+                _evictionQueue.put(entry.key, entry);
+            }
+        }
+    }
+
+    private void evictNestedTypes(final TypeDefinition type) {
+        final List<TypeDefinition> nestedTypes;
+        final Collection<TypeDefinition> declaredTypes = type.getDeclaredTypesInternal();
+
+        synchronized (declaredTypes) {
+            if (declaredTypes.isEmpty()) {
+                return;
+            }
+            nestedTypes = new ArrayList<>(declaredTypes);
+        }
+
+        for (final TypeDefinition nestedType : nestedTypes) {
+            if (_types.remove(nestedType.getInternalName(), nestedType)) {
+                ++_evictedTypeCount;
+            }
+            nestedType.markEvicted();
+            evictNestedTypes(nestedType);
+        }
+    }
+
+    private static String getTopLevelTypeName(final TypeDefinition type) {
+        TypeReference current = type;
+
+        while (current.isNested() && current.getDeclaringType() != null) {
+            current = current.getDeclaringType();
+        }
+
+        return current.getInternalName();
+    }
+
+    // </editor-fold>
+
+    private boolean awaitPendingLoad(final PendingTypeLoad load) {
+        final Thread currentThread = Thread.currentThread();
+
+        synchronized (_waitingThreads) {
+            //
+            // Walk the chain of threads we would be (transitively) waiting on.  If it leads back
+            // to us, waiting would deadlock; this happens when two threads load types which refer
+            // to each other, or when a thread re-enters a nest it is already loading.
+            //
+
+            for (PendingTypeLoad current = load; current != null; current = _waitingThreads.get(current.owner)) {
+                if (current.owner == currentThread) {
+                    return false;
+                }
+            }
+
+            _waitingThreads.put(currentThread, load);
+        }
+
+        try {
+            load.await();
+            return true;
+        }
+        finally {
+            _waitingThreads.remove(currentThread);
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="TypeCacheEntry Class">
+
+    /**
+     * Eviction bookkeeping for a top-level type and its nested types, shared by their definitions
+     * so that cache hits can find it without a lookup.
+     */
+    final static class TypeCacheEntry {
+        final String key;
+
+        //
+        // Guarded by the owning metadata system's eviction queue.
+        //
+        long weight;
+
+        //
+        // Set on every use without any lock, and cleared when the entry gets a second chance.
+        //
+        volatile boolean isReferenced;
+
+        TypeCacheEntry(final String key, final long weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="WorkingSet Class">
+
+    private final static class WorkingSet {
+        final HashSet<String> types = new HashSet<>();
+        int depth = 1;
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="PooledBuffer Class">
+
+    private final static class PooledBuffer extends NioBuffer {
+        @Override
+        protected boolean shouldReallocate(final int size, final int capacity) {
+            //
+            // Keep the backing array between loads unless it has grown unusually large.
+            //
+            return size > capacity ||
+                   capacity > MAX_POOLED_BUFFER_CAPACITY && size < capacity / 4;
+        }
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="PendingTypeLoad Class">
+
+    private final static class PendingTypeLoad {
+        final Thread owner;
+        final String descriptor;
+
+        private final CountDownLatch _latch = new CountDownLatch(1);
+        private volatile TypeDefinition _result;
+        private volatile boolean _isCompleted;
+
+        PendingTypeLoad(final Thread owner, final String descriptor) {
+            this.owner = owner;
+            this.descriptor = descriptor;
+        }
+
+        boolean isCompleted() {
+            return _isCompleted;
+        }
+
+        void complete(final TypeDefinition result) {
+            _result = result;
+            _isCompleted = true;
+            _latch.countDown();
+        }
+
+        void abandon() {
+            _latch.countDown();
+        }
+
+        TypeDefinition getResult() {
+            return _result;
+        }
+
+        void await() {
+            try {
+                _latch.await();
+            }
+            catch (final InterruptedException e) {
+                //
+                // Give up rather than retrying; the latch would keep failing, and the caller
+                // would spin until the owner finished.
+                //
+                Thread.currentThread().interrupt();
+                throw ExceptionUtilities.asRuntimeException(e);
+            }
+        }
+    }
+
+    // </editor-fold>
+
     // <editor-fold defaultstate="collapsed" desc="Primitive Lookup">
 
     private final static TypeDefinition[] PRIMITIVE_TYPES_BY_NAME = new TypeDefinition['Z' - 'B' + 1];
@@ -0,0 +1,182 @@
+/*
+ * MetadataSystemStatistics.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+/**
+ * A snapshot of the counters kept by a {@link MetadataSystem}; see {@link MetadataSystem#getStatistics()}.
+ */
+public final class MetadataSystemStatistics {
+    private final long _typeLoadCount;
+    private final long _sharedTypeLoadCount;
+    private final long _suppressedLookupCount;
+    private final long _evictedTypeCount;
+    private final long _bytesLoaded;
+    private final long _typeLoaderNanos;
+    private final long _classReaderNanos;
+    private final long _signatureCacheHitCount;
+    private final long _signatureCacheMissCount;
+    private final long _typeRelationCacheHitCount;
+    private final long _typeRelationCacheMissCount;
+    private final long _typeRelationCacheEvictionCount;
+    private final long _methodBodyLoadCount;
+    private final long _methodBodyReloadCount;
+    private final long _methodBodyEvictionCount;
+
+    MetadataSystemStatistics(
+        final long typeLoadCount,
+        final long sharedTypeLoadCount,
+        final long suppressedLookupCount,
+        final long evictedTypeCount,
+        final long bytesLoaded,
+        final long typeLoaderNanos,
+        final long classReaderNanos,
+        final long signatureCacheHitCount,
+        final long signatureCacheMissCount,
+        final long typeRelationCacheHitCount,
+        final long typeRelationCacheMissCount,
+        final long typeRelationCacheEvictionCount,
+        final long methodBodyLoadCount,
+        final long methodBodyReloadCount,
+        final long methodBodyEvictionCount) {
+
+        _typeLoadCount = typeLoadCount;
+        _sharedTypeLoadCount = sharedTypeLoadCount;
+        _suppressedLookupCount = suppressedLookupCount;
+        _evictedTypeCount = evictedTypeCount;
+        _bytesLoaded = bytesLoaded;
+        _typeLoaderNanos = typeLoaderNanos;
+        _classReaderNanos = classReaderNanos;
+        _signatureCacheHitCount = signatureCacheHitCount;
+        _signatureCacheMissCount = signatureCacheMissCount;
+        _typeRelationCacheHitCount = typeRelationCacheHitCount;
+        _typeRelationCacheMissCount = typeRelationCacheMissCount;
+        _typeRelationCacheEvictionCount = typeRelationCacheEvictionCount;
+        _methodBodyLoadCount = methodBodyLoadCount;
+        _methodBodyReloadCount = methodBodyReloadCount;
+        _methodBodyEvictionCount = methodBodyEvictionCount;
+    }
+
+    public final long getTypeLoadCount() {
+        return _typeLoadCount;
+    }
+
+    public final long getSharedTypeLoadCount() {
+        return _sharedTypeLoadCount;
+    }
+
+    public final long getSuppressedLookupCount() {
+        return _suppressedLookupCount;
+    }
+
+    public final long getEvictedTypeCount() {
+        return _evictedTypeCount;
+    }
+
+    /**
+     * Returns the total size, in bytes, of the class files read from the type loader.
+     */
+    public final long getBytesLoaded() {
+        return _bytesLoaded;
+    }
+
+    /**
+     * Returns the time spent waiting on the type loader for class file bytes.
+     */
+    public final long getTypeLoaderNanos() {
+        return _typeLoaderNanos;
+    }
+
+    /**
+     * Returns the time spent in {@link ClassFileReader#readClass}, not counting the time spent
+     * loading other types it refers to.  Members and method bodies read lazily, after a type
+     * has been loaded, are not included.
+     */
+    public final long getClassReaderNanos() {
+        return _classReaderNanos;
+    }
+
+    public final long getSignatureCacheHitCount() {
+        return _signatureCacheHitCount;
+    }
+
+    public final long getSignatureCacheMissCount() {
+        return _signatureCacheMissCount;
+    }
+
+    public final double getSignatureCacheHitRatio() {
+        return ratio(_signatureCacheHitCount, _signatureCacheMissCount);
+    }
+
+    public final long getTypeRelationCacheHitCount() {
+        return _typeRelationCacheHitCount;
+    }
+
+    public final long getTypeRelationCacheMissCount() {
+        return _typeRelationCacheMissCount;
+    }
+
+    public final long getTypeRelationCacheEvictionCount() {
+        return _typeRelationCacheEvictionCount;
+    }
+
+    public final double getTypeRelationCacheHitRatio() {
+        return ratio(_typeRelationCacheHitCount, _typeRelationCacheMissCount);
+    }
+
+    public final long getMethodBodyLoadCount() {
+        return _methodBodyLoadCount;
+    }
+
+    /**
+     * Returns the number of method bodies decoded again after the previous body was released.
+     */
+    public final long getMethodBodyReloadCount() {
+        return _methodBodyReloadCount;
+    }
+
+    public final long getMethodBodyEvictionCount() {
+        return _methodBodyEvictionCount;
+    }
+
+    private static double ratio(final long hits, final long misses) {
+        final long requests = hits + misses;
+        return requests == 0 ? 0d : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%d types loaded (%d shared, %d missing lookups suppressed, %d evicted), %d bytes; " +
+            "%.1f ms loading, %.1f ms reading; " +
+            "signature cache %.1f%% hits (%d/%d); " +
+            "type relation cache %.1f%% hits (%d/%d, %d evicted); " +
+            "%d method bodies decoded (%d again, %d evicted)",
+            _typeLoadCount,
+            _sharedTypeLoadCount,
+            _suppressedLookupCount,
+            _evictedTypeCount,
+            _bytesLoaded,
+            _typeLoaderNanos / 1e6,
+            _classReaderNanos / 1e6,
+            getSignatureCacheHitRatio() * 100d,
+            _signatureCacheHitCount,
+            _signatureCacheHitCount + _signatureCacheMissCount,
+            getTypeRelationCacheHitRatio() * 100d,
+            _typeRelationCacheHitCount,
+            _typeRelationCacheHitCount + _typeRelationCacheMissCount,
+            _typeRelationCacheEvictionCount,
+            _methodBodyLoadCount,
+            _methodBodyReloadCount,
+            _methodBodyEvictionCount
+        );
+    }
+}
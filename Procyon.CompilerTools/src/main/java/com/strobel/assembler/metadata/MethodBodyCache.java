@@ -0,0 +1,252 @@
+/*
+ * MethodBodyCache.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+import com.strobel.core.VerifyArgument;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a {@link MethodBodyRetention} policy to the method bodies of one {@link MetadataSystem}.
+ * A method stores its body in whatever holder this cache gives it: the body itself, a reference
+ * to it, or a budgeted {@link Entry}.  The static helpers read a body back out of any of them.
+ */
+final class MethodBodyCache {
+    private final static long DEFAULT_BUDGET = 16L * 1024 * 1024;
+
+    //
+    // Budgeted entries, ordered from least to most recently used, with their size in bytes of
+    // bytecode.  Only used under MethodBodyRetention.BUDGETED.
+    //
+    private final LinkedHashMap<Entry, Integer> _entries;
+    private long _size;
+
+    private final AtomicLong _loadCount;
+    private final AtomicLong _reloadCount;
+    private final AtomicLong _evictionCount;
+
+    private volatile MethodBodyRetention _retention;
+    private volatile long _budget;
+
+    MethodBodyCache() {
+        _entries = new LinkedHashMap<>(16, 0.75f, true);
+        _loadCount = new AtomicLong();
+        _reloadCount = new AtomicLong();
+        _evictionCount = new AtomicLong();
+        _retention = MethodBodyRetention.SOFT;
+        _budget = DEFAULT_BUDGET;
+    }
+
+    final MethodBodyRetention getRetention() {
+        return _retention;
+    }
+
+    final void setRetention(final MethodBodyRetention retention) {
+        VerifyArgument.notNull(retention, "retention");
+
+        final MethodBodyRetention oldRetention = _retention;
+
+        _retention = retention;
+
+        if (oldRetention == MethodBodyRetention.BUDGETED && retention != MethodBodyRetention.BUDGETED) {
+            //
+            // Budgeted bodies are held strongly, so they would never be released if we stopped
+            // tracking them now.  Let them go; they will be reloaded under the new policy.
+            //
+            releaseEntries(0L);
+        }
+    }
+
+    final long getBudget() {
+        return _budget;
+    }
+
+    final void setBudget(final long budget) {
+        VerifyArgument.isNonNegative(budget, "budget");
+        _budget = budget;
+        releaseEntries(budget);
+    }
+
+    final long getSize() {
+        synchronized (_entries) {
+            return _size;
+        }
+    }
+
+    final long getLoadCount() {
+        return _loadCount.get();
+    }
+
+    final long getReloadCount() {
+        return _reloadCount.get();
+    }
+
+    final long getEvictionCount() {
+        return _evictionCount.get();
+    }
+
+    /**
+     * Returns the cache which governs the bodies of {@code method}, or {@code null} if its
+     * declaring type does not belong to a {@link MetadataSystem}.
+     */
+    static MethodBodyCache find(final MethodDefinition method) {
+        final TypeDefinition declaringType = method.getDeclaringType();
+        final IMetadataResolver resolver = declaringType != null ? declaringType.getResolver() : null;
+
+        return resolver instanceof MetadataSystem ? ((MetadataSystem) resolver).getMethodBodyCache() : null;
+    }
+
+    /**
+     * Wraps a newly loaded body in the holder its method should store, according to the current
+     * retention policy of {@code cache} (or {@link MethodBodyRetention#SOFT} if there is none).
+     * Once the method has stored the holder, it must pass it to {@link #track(Object)}.
+     */
+    static Object retain(final MethodBodyCache cache, final MethodDefinition method, final MethodBody body, final boolean isReload) {
+        if (cache == null) {
+            return new SoftReference<>(body);
+        }
+
+        cache._loadCount.incrementAndGet();
+
+        if (isReload) {
+            cache._reloadCount.incrementAndGet();
+        }
+
+        switch (cache._retention) {
+            case STRONG:
+                return body;
+            case WEAK:
+                return new WeakReference<>(body);
+            case BUDGETED:
+                return new Entry(cache, method, body);
+            default:
+                return new SoftReference<>(body);
+        }
+    }
+
+    /**
+     * Starts tracking a holder returned by {@link #retain}, if its body counts against a budget.
+     * This happens only after the method has stored the holder, so that a release, which may
+     * come right away, always finds it there.
+     */
+    static void track(final Object holder) {
+        if (holder instanceof Entry) {
+            final Entry entry = (Entry) holder;
+            entry.cache.add(entry);
+        }
+    }
+
+    /**
+     * Returns the body stored in {@code holder}, marking it as recently used.
+     */
+    static MethodBody get(final Object holder) {
+        if (holder instanceof Entry) {
+            final Entry entry = (Entry) holder;
+            entry.cache.touch(entry);
+            return entry.body;
+        }
+
+        return peek(holder);
+    }
+
+    /**
+     * Returns the body stored in {@code holder} without marking it as used.
+     */
+    static MethodBody peek(final Object holder) {
+        if (holder instanceof MethodBody) {
+            return (MethodBody) holder;
+        }
+
+        if (holder instanceof Reference<?>) {
+            return (MethodBody) ((Reference<?>) holder).get();
+        }
+
+        if (holder instanceof Entry) {
+            return ((Entry) holder).body;
+        }
+
+        return null;
+    }
+
+    private void add(final Entry entry) {
+        final int size = entry.body.getCodeSize();
+
+        synchronized (_entries) {
+            _entries.put(entry, size);
+            _size += size;
+        }
+
+        releaseEntries(_budget);
+    }
+
+    private void touch(final Entry entry) {
+        synchronized (_entries) {
+            _entries.get(entry);
+        }
+    }
+
+    private void releaseEntries(final long budget) {
+        final List<Entry> released;
+
+        synchronized (_entries) {
+            if (_size <= budget) {
+                return;
+            }
+
+            released = new ArrayList<>();
+
+            final Iterator<Map.Entry<Entry, Integer>> iterator = _entries.entrySet().iterator();
+
+            //
+            // Always keep the most recently used body, even if it alone exceeds the budget;
+            // whoever just loaded it is about to use it.
+            //
+            while (_size > budget && _entries.size() > (budget > 0 ? 1 : 0) && iterator.hasNext()) {
+                final Map.Entry<Entry, Integer> e = iterator.next();
+
+                released.add(e.getKey());
+                _size -= e.getValue();
+                iterator.remove();
+            }
+        }
+
+        _evictionCount.addAndGet(released.size());
+
+        //
+        // Clear the methods' references outside the lock; a method may be loading a body (and
+        // calling add()) while holding its own monitor.
+        //
+        for (final Entry entry : released) {
+            entry.method.releaseBody(entry);
+        }
+    }
+
+    final static class Entry {
+        final MethodBodyCache cache;
+        final MethodDefinition method;
+        final MethodBody body;
+
+        Entry(final MethodBodyCache cache, final MethodDefinition method, final MethodBody body) {
+            this.cache = cache;
+            this.method = method;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * MethodBodyRetention.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+/**
+ * Determines how long a {@link MetadataSystem} keeps decoded method bodies around.  A body which
+ * is no longer retained is simply decoded again the next time it is requested.
+ *
+ * @see MetadataSystem#setMethodBodyRetention(MethodBodyRetention)
+ */
+public enum MethodBodyRetention {
+    /**
+     * Bodies are kept for as long as their methods are.
+     */
+    STRONG,
+
+    /**
+     * Bodies are kept until the garbage collector needs the memory (the default).
+     */
+    SOFT,
+
+    /**
+     * Bodies are kept only while something else refers to them.
+     */
+    WEAK,
+
+    /**
+     * Bodies are kept strongly until their combined bytecode exceeds the budget set with
+     * {@link MetadataSystem#setMethodBodyBudget(long)}, at which point the least recently used
+     * bodies are released.
+     */
+    BUDGETED
+}
@@ -26,7 +26,6 @@ import com.strobel.assembler.metadata.annotations.CustomAnnotation;
 import com.strobel.core.HashUtilities;
 import com.strobel.core.StringUtilities;
 
-import java.lang.ref.SoftReference;
 import java.util.Collections;
 import java.util.List;
 
@@ -46,7 +45,12 @@ public class MethodDefinition extends MethodReference implements IMemberDefiniti
     private final List<CustomAnnotation> _customAnnotationsView;
     private final List<SourceAttribute> _sourceAttributesView;
 
-    private SoftReference<MethodBody> _body;
+    //
+    // The body, held according to the metadata system's MethodBodyRetention policy; see
+    // MethodBodyCache for the possible holders.
+    //
+    private volatile Object _body;
+    private boolean _hasLoadedBody;
     private String _name;
     private String _fullName;
     private String _erasedSignature;
@@ -71,15 +75,13 @@ public class MethodDefinition extends MethodReference implements IMemberDefiniti
     }
 
     public final boolean hasBody() {
-        final SoftReference<MethodBody> bodyCache = _body;
-        return bodyCache != null && bodyCache.get() != null;
+        return MethodBodyCache.peek(_body) != null;
     }
 
     public final MethodBody getBody() {
-        final MethodBody body;
-        final SoftReference<MethodBody> cachedBody = _body;
+        final MethodBody body = MethodBodyCache.get(_body);
 
-        if (cachedBody == null || (body = _body.get()) == null) {
+        if (body == null) {
             return tryLoadBody();
         }
 
@@ -90,8 +92,8 @@ public class MethodDefinition extends MethodReference implements IMemberDefiniti
         return !isStatic();
     }
 
-    protected final void setBody(final MethodBody body) {
-        _body = new SoftReference<>(body);
+    protected final synchronized void setBody(final MethodBody body) {
+        retainBody(body);
     }
 
     @Override
@@ -104,6 +106,12 @@ public class MethodDefinition extends MethodReference implements IMemberDefiniti
     }
 
     public final List<TypeDefinition> getDeclaredTypes() {
+        final TypeDefinition declaringType = getDeclaringType();
+
+        if (declaringType != null) {
+            declaringType.linkLocalTypes();
+        }
+
         return _declaredTypesView;
     }
 
@@ -655,11 +663,20 @@ public class MethodDefinition extends MethodReference implements IMemberDefiniti
 
     // <editor-fold defaultstate="collapsed" desc="Deferred Method Body Loading">
 
-    private MethodBody tryLoadBody() {
+    private synchronized MethodBody tryLoadBody() {
         if (Flags.testAny(_flags, Flags.LOAD_BODY_FAILED)) {
             return null;
         }
 
+        final MethodBody existingBody = MethodBodyCache.get(_body);
+
+        if (existingBody != null) {
+            //
+            // Another thread loaded the body while we were waiting.
+            //
+            return existingBody;
+        }
+
         final CodeAttribute codeAttribute = SourceAttribute.find(AttributeNames.Code, _sourceAttributes);
 
         if (codeAttribute == null) {
@@ -679,7 +696,7 @@ public class MethodDefinition extends MethodReference implements IMemberDefiniti
                 return null;
             }
 
-            code = new Buffer();
+            code = new NioBuffer();
 
             if (!typeLoader.tryLoadType(_declaringType.getInternalName(), code)) {
                 _flags |= Flags.LOAD_BODY_FAILED;
@@ -728,7 +745,7 @@ public class MethodDefinition extends MethodReference implements IMemberDefiniti
 
         final MethodBody body = new MethodReader(this, scope).readBody();
 
-        _body = new SoftReference<>(body);
+        retainBody(body);
         _sourceAttributes.set(codeAttributeIndex, codeAttribute);
 
         body.tryFreeze();
@@ -736,5 +753,23 @@ public class MethodDefinition extends MethodReference implements IMemberDefiniti
         return body;
     }
 
+    private void retainBody(final MethodBody body) {
+        final Object holder = MethodBodyCache.retain(MethodBodyCache.find(this), this, body, _hasLoadedBody);
+
+        _hasLoadedBody = true;
+        _body = holder;
+
+        MethodBodyCache.track(holder);
+    }
+
+    /**
+     * Called by the {@link MethodBodyCache} when it no longer wants this method's body retained.
+     */
+    final void releaseBody(final Object holder) {
+        if (_body == holder) {
+            _body = null;
+        }
+    }
+
     // </editor-fold>
 }
@@ -565,6 +565,11 @@ public class MethodReader {
 */
         }
 
+        //
+        // Reading looks up branch targets by offset; don't keep that index alive in the body.
+        //
+        body.releaseIndex();
+
         return _methodBody;
     }
 
@@ -0,0 +1,241 @@
+/*
+ * NioBuffer.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+import com.strobel.core.VerifyArgument;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link Buffer} which can read directly from a {@link ByteBuffer}, e.g., a slice of a direct
+ * or memory mapped buffer, without first copying its contents onto the heap.
+ * <p>
+ * A type loader which is handed an {@code NioBuffer} may {@link #wrap(ByteBuffer) wrap} the class
+ * file data instead of copying it.  Loaders which do not know about {@code NioBuffer} continue to
+ * work unchanged: {@link #reset(int) resetting} the buffer returns it to ordinary heap storage.
+ * Operations which need a backing array ({@link #array()} and all writes) copy the wrapped data
+ * onto the heap first.
+ */
+public class NioBuffer extends Buffer {
+    private ByteBuffer _source;
+
+    public NioBuffer() {
+        super(0);
+    }
+
+    public NioBuffer(final ByteBuffer source) {
+        super(0);
+        wrap(source);
+    }
+
+    /**
+     * Makes this buffer read from the remaining content of {@code source}, i.e., the bytes
+     * between its position and its limit.  The position of {@code source} is not modified.
+     * Any heap storage is kept, and will be reused if the buffer is later reset.
+     */
+    public NioBuffer wrap(final ByteBuffer source) {
+        VerifyArgument.notNull(source, "source");
+
+        final ByteBuffer view = source.slice();
+
+        view.order(ByteOrder.BIG_ENDIAN);
+        _source = view;
+
+        return this;
+    }
+
+    public final boolean isWrapping() {
+        return _source != null;
+    }
+
+    @Override
+    public int size() {
+        final ByteBuffer source = _source;
+        return source != null ? source.limit() : super.size();
+    }
+
+    @Override
+    public void flip() {
+        final ByteBuffer source = _source;
+
+        if (source != null) {
+            source.flip();
+        }
+        else {
+            super.flip();
+        }
+    }
+
+    @Override
+    public int position() {
+        final ByteBuffer source = _source;
+        return source != null ? source.position() : super.position();
+    }
+
+    @Override
+    public void position(final int position) {
+        final ByteBuffer source = _source;
+
+        if (source == null) {
+            super.position(position);
+            return;
+        }
+
+        if (position > source.limit()) {
+            throw new BufferUnderflowException();
+        }
+
+        source.position(position);
+    }
+
+    @Override
+    public void advance(final int length) {
+        final ByteBuffer source = _source;
+
+        if (source == null) {
+            super.advance(length);
+            return;
+        }
+
+        if (source.position() + length > source.limit()) {
+            source.position(source.limit());
+            throw new BufferUnderflowException();
+        }
+
+        source.position(source.position() + length);
+    }
+
+    @Override
+    public void clear() {
+        _source = null;
+        super.clear();
+    }
+
+    @Override
+    public void reset(final int initialSize) {
+        _source = null;
+        super.reset(initialSize);
+    }
+
+    @Override
+    public byte[] array() {
+        if (_source != null) {
+            materialize();
+        }
+        return super.array();
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        final ByteBuffer source = _source;
+
+        if (source == null) {
+            return super.read(buffer, offset, length);
+        }
+
+        if (buffer == null) {
+            throw new NullPointerException();
+        }
+
+        if (offset < 0 || length < 0 || length > buffer.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        if (!source.hasRemaining()) {
+            return -1;
+        }
+
+        final int actualLength = Math.min(length, source.remaining());
+
+        if (actualLength <= 0) {
+            return 0;
+        }
+
+        source.get(buffer, offset, actualLength);
+
+        return actualLength;
+    }
+
+    @Override
+    public byte readByte() {
+        final ByteBuffer source = _source;
+        return source != null ? source.get() : super.readByte();
+    }
+
+    @Override
+    public int readUnsignedByte() {
+        final ByteBuffer source = _source;
+        return source != null ? source.get() & 0xFF : super.readUnsignedByte();
+    }
+
+    @Override
+    public short readShort() {
+        final ByteBuffer source = _source;
+        return source != null ? source.getShort() : super.readShort();
+    }
+
+    @Override
+    public int readUnsignedShort() {
+        final ByteBuffer source = _source;
+        return source != null ? source.getShort() & 0xFFFF : super.readUnsignedShort();
+    }
+
+    @Override
+    public int readInt() {
+        final ByteBuffer source = _source;
+        return source != null ? source.getInt() : super.readInt();
+    }
+
+    @Override
+    public long readLong() {
+        final ByteBuffer source = _source;
+        return source != null ? source.getLong() : super.readLong();
+    }
+
+    @Override
+    protected void verifyReadableBytes(final int size) {
+        final ByteBuffer source = _source;
+
+        if (source == null) {
+            super.verifyReadableBytes(size);
+            return;
+        }
+
+        if (VerifyArgument.isNonNegative(size, "size") > source.remaining()) {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    @Override
+    protected void ensureWriteableBytes(final int size) {
+        if (_source != null) {
+            materialize();
+        }
+        super.ensureWriteableBytes(size);
+    }
+
+    private void materialize() {
+        final ByteBuffer source = _source;
+        final int position = source.position();
+        final int size = source.limit();
+
+        _source = null;
+        super.reset(size);
+
+        source.position(0);
+        source.get(super.array(), 0, size);
+
+        super.position(position);
+    }
+}
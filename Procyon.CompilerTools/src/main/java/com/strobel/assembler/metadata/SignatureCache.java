@@ -0,0 +1,115 @@
+/*
+ * SignatureCache.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+import com.strobel.assembler.metadata.signatures.ClassSignature;
+import com.strobel.assembler.metadata.signatures.MethodTypeSignature;
+import com.strobel.assembler.metadata.signatures.SignatureParser;
+import com.strobel.assembler.metadata.signatures.TypeSignature;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches parsed descriptors and signatures by their text.  Only the syntax trees produced by the
+ * {@link SignatureParser} are cached; they are immutable, and they say nothing about which types
+ * or type variables the names refer to.  Reifying a tree against the current resolver and generic
+ * context still happens on every parse, so the cache is safe to share between parsers with
+ * different generic contexts.
+ */
+final class SignatureCache {
+    //
+    // Descriptors come from constant pools, so the number of distinct strings grows with the number
+    // of classes loaded.  Stop adding entries past this point; the common ones will be in by then.
+    //
+    private final static int MAX_ENTRIES_PER_KIND = 1 << 16;
+
+    private final ConcurrentHashMap<String, TypeSignature> _typeSignatures;
+    private final ConcurrentHashMap<String, MethodTypeSignature> _methodSignatures;
+    private final ConcurrentHashMap<String, ClassSignature> _classSignatures;
+    private final AtomicLong _hitCount;
+    private final AtomicLong _missCount;
+
+    SignatureCache() {
+        _typeSignatures = new ConcurrentHashMap<>();
+        _methodSignatures = new ConcurrentHashMap<>();
+        _classSignatures = new ConcurrentHashMap<>();
+        _hitCount = new AtomicLong();
+        _missCount = new AtomicLong();
+    }
+
+    final long getHitCount() {
+        return _hitCount.get();
+    }
+
+    final long getMissCount() {
+        return _missCount.get();
+    }
+
+
+    final TypeSignature parseTypeSignature(final SignatureParser parser, final String signature) {
+        final TypeSignature cached = _typeSignatures.get(signature);
+
+        if (cached != null) {
+            _hitCount.incrementAndGet();
+            return cached;
+        }
+
+        _missCount.incrementAndGet();
+
+        final TypeSignature parsed = parser.parseTypeSignature(signature);
+
+        if (_typeSignatures.size() < MAX_ENTRIES_PER_KIND) {
+            _typeSignatures.putIfAbsent(signature, parsed);
+        }
+
+        return parsed;
+    }
+
+    final MethodTypeSignature parseMethodSignature(final SignatureParser parser, final String signature) {
+        final MethodTypeSignature cached = _methodSignatures.get(signature);
+
+        if (cached != null) {
+            _hitCount.incrementAndGet();
+            return cached;
+        }
+
+        _missCount.incrementAndGet();
+
+        final MethodTypeSignature parsed = parser.parseMethodSignature(signature);
+
+        if (_methodSignatures.size() < MAX_ENTRIES_PER_KIND) {
+            _methodSignatures.putIfAbsent(signature, parsed);
+        }
+
+        return parsed;
+    }
+
+    final ClassSignature parseClassSignature(final SignatureParser parser, final String signature) {
+        final ClassSignature cached = _classSignatures.get(signature);
+
+        if (cached != null) {
+            _hitCount.incrementAndGet();
+            return cached;
+        }
+
+        _missCount.incrementAndGet();
+
+        final ClassSignature parsed = parser.parseClassSignature(signature);
+
+        if (_classSignatures.size() < MAX_ENTRIES_PER_KIND) {
+            _classSignatures.putIfAbsent(signature, parsed);
+        }
+
+        return parsed;
+    }
+}
@@ -24,10 +24,22 @@ import com.strobel.core.ArrayUtilities;
 import com.strobel.core.StringUtilities;
 import com.strobel.core.VerifyArgument;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class TypeDefinition extends TypeReference implements IMemberDefinition {
+    //
+    // Types whose enclosing method is being resolved, or whose local types are being linked, on the
+    // current thread.  A type asked again from further up the stack answers without waiting.
+    //
+    private final static ThreadLocal<Set<TypeDefinition>> RESOLVING_ENCLOSING_METHODS = createTypeSet();
+    private final static ThreadLocal<Set<TypeDefinition>> LINKING_LOCAL_TYPES = createTypeSet();
+
     private final GenericParameterCollection _genericParameters;
     private final Collection<TypeDefinition> _declaredTypes;
     private final Collection<FieldDefinition> _declaredFields;
@@ -58,6 +70,20 @@ public class TypeDefinition extends TypeReference implements IMemberDefinition {
     private MethodReference _declaringMethod;
     private ConstantPool _constantPool;
     private ITypeLoader _typeLoader;
+    private volatile ClassFileReader _memberReader;
+
+    //
+    // Linkage to and from enclosing methods is established on demand; see getDeclaringMethod()
+    // and linkLocalTypes().  Resolution happens without any lock held, and only publishing the
+    // results is guarded by _linkageLock.
+    //
+    private final Object _linkageLock = new Object();
+    private volatile MethodReference _enclosingMethod;
+    private volatile List<TypeReference> _localTypes;
+
+    private volatile MemberIndex _memberIndex;
+    private volatile MetadataSystem.TypeCacheEntry _cacheEntry;
+    private volatile boolean _isEvicted;
 
     public TypeDefinition() {
         _genericParameters = new GenericParameterCollection(this);
@@ -89,6 +115,49 @@ public class TypeDefinition extends TypeReference implements IMemberDefinition {
         _typeLoader = typeLoader;
     }
 
+    final void setMemberReader(final ClassFileReader memberReader) {
+        _memberReader = memberReader;
+    }
+
+    /**
+     * Adds the members read by this type's member reader, which is then released.  Callers which
+     * find no member reader (a volatile read) are guaranteed to see all of them.
+     */
+    final void publishMembers(final List<FieldDefinition> fields, final List<MethodDefinition> methods) {
+        _declaredFields.addAll(fields);
+        _declaredMethods.addAll(methods);
+        _memberReader = null;
+    }
+
+    /**
+     * Returns whether this definition has been evicted from its metadata system's type cache.
+     * Lookups through the metadata system return a fresh definition after that, so caches must
+     * not hand out this one (or its members) any more.
+     */
+    final boolean isEvicted() {
+        return _isEvicted;
+    }
+
+    final void markEvicted() {
+        _isEvicted = true;
+    }
+
+    final MetadataSystem.TypeCacheEntry getCacheEntry() {
+        return _cacheEntry;
+    }
+
+    final void setCacheEntry(final MetadataSystem.TypeCacheEntry cacheEntry) {
+        _cacheEntry = cacheEntry;
+    }
+
+    private void ensureMembers() {
+        final ClassFileReader memberReader = _memberReader;
+
+        if (memberReader != null) {
+            memberReader.materializeMembers();
+        }
+    }
+
     public final CompilerTarget getCompilerTarget() {
         return CompilerTarget.lookup(getCompilerMajorVersion(), getCompilerMinorVersion());
     }
@@ -184,11 +253,126 @@ public class TypeDefinition extends TypeReference implements IMemberDefinition {
     }
 
     public final MethodReference getDeclaringMethod() {
+        if (_enclosingMethod != null) {
+            resolveEnclosingMethod();
+        }
         return _declaringMethod;
     }
 
     protected final void setDeclaringMethod(final MethodReference declaringMethod) {
         _declaringMethod = declaringMethod;
+        _enclosingMethod = null;
+    }
+
+    /**
+     * Records the method enclosing this local or anonymous type without resolving it.  Resolving
+     * the method means loading its declaring type and that type's members, so we put it off until
+     * someone asks for the declaring method.
+     */
+    final void setEnclosingMethod(final MethodReference enclosingMethod) {
+        _declaringMethod = enclosingMethod;
+        _enclosingMethod = enclosingMethod;
+    }
+
+    private void resolveEnclosingMethod() {
+        final MethodReference enclosingMethod = _enclosingMethod;
+        final Set<TypeDefinition> resolvingTypes = RESOLVING_ENCLOSING_METHODS.get();
+
+        if (enclosingMethod == null || !resolvingTypes.add(this)) {
+            //
+            // Either we're done, or we're being asked from further up the stack, in which case
+            // the caller gets the unresolved reference.
+            //
+            return;
+        }
+
+        //
+        // Resolving the method loads other types, which may need to link back to us on another
+        // thread.  Threads racing to resolve the same method get the same definition, so the
+        // first one to finish publishes it.
+        //
+        MethodDefinition resolvedMethod = null;
+
+        try {
+            resolvedMethod = enclosingMethod.resolve();
+
+            if (resolvedMethod != null) {
+                final AnonymousLocalTypeCollection enclosedTypes = resolvedMethod.getDeclaredTypesInternal();
+
+                synchronized (enclosedTypes) {
+                    if (!enclosedTypes.contains(this)) {
+                        enclosedTypes.add(this);
+                    }
+                }
+            }
+        }
+        finally {
+            resolvingTypes.remove(this);
+
+            synchronized (_linkageLock) {
+                if (_enclosingMethod == enclosingMethod) {
+                    if (resolvedMethod != null) {
+                        _declaringMethod = resolvedMethod;
+                    }
+                    _enclosingMethod = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the local and anonymous types declared within this type's methods.  They are linked
+     * to their enclosing methods when the declared types of one of our methods are first requested.
+     */
+    final void setLocalTypes(final List<TypeReference> localTypes) {
+        _localTypes = localTypes;
+    }
+
+    final void linkLocalTypes() {
+        final List<TypeReference> localTypes = _localTypes;
+
+        if (localTypes == null) {
+            return;
+        }
+
+        final Set<TypeDefinition> linkingTypes = LINKING_LOCAL_TYPES.get();
+
+        if (!linkingTypes.add(this)) {
+            return;
+        }
+
+        //
+        // As in resolveEnclosingMethod(), we resolve without holding a lock.  Linking is idempotent,
+        // so a thread which gets here while another is linking does the work as well rather than
+        // waiting, and returns only once every local type has been linked.
+        //
+        try {
+            for (final TypeReference localType : localTypes) {
+                final TypeDefinition resolvedLocalType = localType.resolve();
+
+                if (resolvedLocalType != null) {
+                    resolvedLocalType.getDeclaringMethod();
+                }
+            }
+        }
+        finally {
+            linkingTypes.remove(this);
+
+            synchronized (_linkageLock) {
+                if (_localTypes == localTypes) {
+                    _localTypes = null;
+                }
+            }
+        }
+    }
+
+    private static ThreadLocal<Set<TypeDefinition>> createTypeSet() {
+        return new ThreadLocal<Set<TypeDefinition>>() {
+            @Override
+            protected Set<TypeDefinition> initialValue() {
+                return Collections.newSetFromMap(new IdentityHashMap<TypeDefinition, Boolean>());
+            }
+        };
     }
 
     public final TypeReference getBaseType() {
@@ -288,10 +472,12 @@ public class TypeDefinition extends TypeReference implements IMemberDefinition {
     }
 
     protected final Collection<FieldDefinition> getDeclaredFieldsInternal() {
+        ensureMembers();
         return _declaredFields;
     }
 
     protected final Collection<MethodDefinition> getDeclaredMethodsInternal() {
+        ensureMembers();
         return _declaredMethods;
     }
 
@@ -392,7 +578,7 @@ public class TypeDefinition extends TypeReference implements IMemberDefinition {
     }
 
     public final boolean isLocalClass() {
-        return getDeclaringMethod() != null;
+        return _declaringMethod != null;
     }
 
     public boolean isNested() {
@@ -417,10 +603,12 @@ public class TypeDefinition extends TypeReference implements IMemberDefinition {
     // <editor-fold defaultstate="collapsed" desc="Members">
 
     public final List<FieldDefinition> getDeclaredFields() {
+        ensureMembers();
         return _declaredFieldsView;
     }
 
     public final List<MethodDefinition> getDeclaredMethods() {
+        ensureMembers();
         return _declaredMethodsView;
     }
 
@@ -428,6 +616,82 @@ public class TypeDefinition extends TypeReference implements IMemberDefinition {
         return _declaredTypesView;
     }
 
+    /**
+     * Finds the declared field matching {@code reference}, using the same rules as
+     * {@link MetadataResolver#getField(List, FieldReference)}, but considering only fields with a
+     * matching name.
+     */
+    final FieldDefinition findDeclaredField(final FieldReference reference) {
+        final List<FieldDefinition> candidates = getMemberIndex().fields.get(reference.getName());
+        return candidates != null ? MetadataResolver.getField(candidates, reference) : null;
+    }
+
+    /**
+     * Finds the declared method matching {@code reference}, using the same rules as
+     * {@link MetadataResolver#getMethod(List, MethodReference)}, but considering only methods
+     * with a matching name.
+     */
+    final MethodDefinition findDeclaredMethod(final MethodReference reference) {
+        final List<MethodDefinition> candidates = getMemberIndex().methods.get(reference.getName());
+        return candidates != null ? MetadataResolver.getMethod(candidates, reference) : null;
+    }
+
+    private MemberIndex getMemberIndex() {
+        final List<FieldDefinition> fields = getDeclaredFields();
+        final List<MethodDefinition> methods = getDeclaredMethods();
+
+        MemberIndex index = _memberIndex;
+
+        //
+        // Members are only added while the type is being read, but a lookup may happen partway
+        // through (e.g., a type resolving its own members), so check the index is still current.
+        //
+        if (index == null || index.fieldCount != fields.size() || index.methodCount != methods.size()) {
+            _memberIndex = index = new MemberIndex(fields, methods);
+        }
+
+        return index;
+    }
+
+    private final static class MemberIndex {
+        final int fieldCount;
+        final int methodCount;
+        final Map<String, List<FieldDefinition>> fields;
+        final Map<String, List<MethodDefinition>> methods;
+
+        MemberIndex(final List<FieldDefinition> fields, final List<MethodDefinition> methods) {
+            this.fieldCount = fields.size();
+            this.methodCount = methods.size();
+            this.fields = new HashMap<>();
+            this.methods = new HashMap<>();
+
+            //
+            // Candidates stay in declaration order, so the first match is the same one a linear
+            // search would find.
+            //
+
+            for (final FieldDefinition field : fields) {
+                List<FieldDefinition> candidates = this.fields.get(field.getName());
+
+                if (candidates == null) {
+                    this.fields.put(field.getName(), candidates = new ArrayList<>(1));
+                }
+
+                candidates.add(field);
+            }
+
+            for (final MethodDefinition method : methods) {
+                List<MethodDefinition> candidates = this.methods.get(method.getName());
+
+                if (candidates == null) {
+                    this.methods.put(method.getName(), candidates = new ArrayList<>(2));
+                }
+
+                candidates.add(method);
+            }
+        }
+    }
+
     // </editor-fold>
 
     // <editor-fold defaultstate="collapsed" desc="Name and Signature Formatting">
@@ -0,0 +1,87 @@
+/*
+ * TypeLoaderStatistics.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+/**
+ * A snapshot of the counters kept by an {@link InstrumentedTypeLoader}.
+ */
+public final class TypeLoaderStatistics {
+    private final String _name;
+    private final long _hitCount;
+    private final long _missCount;
+    private final long _bytesRead;
+    private final long _elapsedNanos;
+
+    TypeLoaderStatistics(
+        final String name,
+        final long hitCount,
+        final long missCount,
+        final long bytesRead,
+        final long elapsedNanos) {
+
+        _name = name;
+        _hitCount = hitCount;
+        _missCount = missCount;
+        _bytesRead = bytesRead;
+        _elapsedNanos = elapsedNanos;
+    }
+
+    public final String getName() {
+        return _name;
+    }
+
+    /**
+     * Returns the number of types the loader found.
+     */
+    public final long getHitCount() {
+        return _hitCount;
+    }
+
+    /**
+     * Returns the number of types the loader was asked for but could not find.
+     */
+    public final long getMissCount() {
+        return _missCount;
+    }
+
+    /**
+     * Returns the total size, in bytes, of the class files the loader returned.
+     */
+    public final long getBytesRead() {
+        return _bytesRead;
+    }
+
+    /**
+     * Returns the total time spent in the loader, including failed lookups.
+     */
+    public final long getElapsedNanos() {
+        return _elapsedNanos;
+    }
+
+    public final double getHitRatio() {
+        final long requests = _hitCount + _missCount;
+        return requests == 0 ? 0d : (double) _hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%s: %d found, %d not found (%.1f%% found), %d bytes, %.1f ms",
+            _name,
+            _hitCount,
+            _missCount,
+            getHitRatio() * 100d,
+            _bytesRead,
+            _elapsedNanos / 1e6
+        );
+    }
+}
@@ -586,7 +586,7 @@ public abstract class TypeReference extends MemberReference implements IGenericP
         final TypeDefinition resolvedType = this.resolve();
 
         if (resolvedType != null) {
-            return MetadataResolver.getField(resolvedType.getDeclaredFields(), field);
+            return resolvedType.findDeclaredField(field);
         }
 
         return null;
@@ -596,7 +596,7 @@ public abstract class TypeReference extends MemberReference implements IGenericP
         final TypeDefinition resolvedType = this.resolve();
 
         if (resolvedType != null) {
-            return MetadataResolver.getMethod(resolvedType.getDeclaredMethods(), method);
+            return resolvedType.findDeclaredMethod(method);
         }
 
         return null;
@@ -0,0 +1,286 @@
+/*
+ * TypeRelationCache.java
+ *
+ * This source code is subject to terms and conditions of the Apache License, Version 2.0.
+ * A copy of the license can be found in the License.html file at the root of this distribution.
+ * By using this source code in any fashion, you are agreeing to be bound by the terms of the
+ * Apache License, Version 2.0.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.strobel.assembler.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the results of {@link MetadataHelper} queries relating two types, e.g., whether one is
+ * a subtype of the other.  Only types whose relations are fully determined by their name are
+ * eligible: no generic instances, generic definitions, type variables, wildcards, arrays, or
+ * primitives.  Those make up most of the queries made while analyzing method bodies, and the answer
+ * for such a pair cannot depend on the context the types came from.
+ * <p>
+ * Predicate results depend only on type names, so they survive type cache eviction.  Type results
+ * refer to type definitions, and are dropped once any of those definitions has been evicted.
+ */
+final class TypeRelationCache {
+    final static int IS_SUBTYPE = 0;
+    final static int IS_SUBTYPE_NO_CAPTURE = 1;
+    final static int AS_SUPER = 2;
+    final static int COMMON_SUPER_TYPE = 3;
+
+    //
+    // When the cache fills up, we simply start over; the relations worth remembering are the ones
+    // among the types currently being decompiled, and those come back quickly.
+    //
+    private final static int MAX_ENTRIES = 1 << 14;
+
+    private final static Object NULL_RESULT = new Object();
+
+    private final ConcurrentHashMap<Key, Object> _entries;
+    private final AtomicLong _hitCount;
+    private final AtomicLong _missCount;
+    private final AtomicLong _evictionCount;
+
+    TypeRelationCache() {
+        _entries = new ConcurrentHashMap<>();
+        _hitCount = new AtomicLong();
+        _missCount = new AtomicLong();
+        _evictionCount = new AtomicLong();
+    }
+
+    final long getHitCount() {
+        return _hitCount.get();
+    }
+
+    final long getMissCount() {
+        return _missCount.get();
+    }
+
+    final long getEvictionCount() {
+        return _evictionCount.get();
+    }
+
+    /**
+     * Returns the cache which applies to a relation between {@code a} and {@code b}, or
+     * {@code null} if the relation should not be cached.
+     */
+    static TypeRelationCache find(final TypeReference a, final TypeReference b) {
+        if (!isEligible(a) || !isEligible(b)) {
+            return null;
+        }
+
+        final TypeDefinition resolvedType = a.resolve();
+
+        if (resolvedType == null) {
+            return null;
+        }
+
+        final IMetadataResolver resolver = resolvedType.getResolver();
+
+        return resolver instanceof MetadataSystem ? ((MetadataSystem) resolver).getTypeRelationCache() : null;
+    }
+
+    static Key key(final int relation, final TypeReference a, final TypeReference b) {
+        return new Key(relation, a, b);
+    }
+
+    /**
+     * Returns the cached result for {@code key}, or {@code null} if no result is cached.  Predicate
+     * results are {@link Boolean}s; type results should be passed through {@link #toTypeResult}.
+     */
+    final Object get(final Key key) {
+        Object result = _entries.get(key);
+
+        if (result instanceof TypeResult && ((TypeResult) result).isStale()) {
+            _entries.remove(key, result);
+            result = null;
+        }
+
+        if (result != null) {
+            _hitCount.incrementAndGet();
+        }
+        else {
+            _missCount.incrementAndGet();
+        }
+
+        return result;
+    }
+
+    final void put(final Key key, final Object result) {
+        if (_entries.size() >= MAX_ENTRIES) {
+            _evictionCount.addAndGet(_entries.size());
+            _entries.clear();
+        }
+
+        if (result instanceof TypeReference) {
+            _entries.put(key, new TypeResult((TypeReference) result));
+        }
+        else {
+            _entries.put(key, result != null ? result : NULL_RESULT);
+        }
+    }
+
+    /**
+     * Converts a cached type result for a query on {@code a} and {@code b} back into a type.  Many
+     * queries answer with one of their arguments; in that case, we hand back the caller's own
+     * argument rather than the equivalent reference cached by an earlier caller.
+     */
+    static TypeReference toTypeResult(final Object cached, final TypeReference a, final TypeReference b) {
+        if (cached == NULL_RESULT) {
+            return null;
+        }
+
+        final TypeReference result = ((TypeResult) cached).type;
+
+        if (isSameReference(result, a)) {
+            return a;
+        }
+
+        if (isSameReference(result, b)) {
+            return b;
+        }
+
+        return result;
+    }
+
+    private static boolean isSameReference(final TypeReference t, final TypeReference s) {
+        return t.getClass() == s.getClass() &&
+               isEligible(t) &&
+               t.getInternalName().equals(s.getInternalName());
+    }
+
+    private static boolean isEligible(final TypeReference t) {
+        return t != null &&
+               !t.isPrimitive() &&
+               !t.isArray() &&
+               !t.isGenericType() &&
+               !t.isGenericParameter() &&
+               !t.isWildcardType() &&
+               !(t instanceof CompoundTypeReference) &&
+               !(t instanceof ICapturedType) &&
+               t.getInternalName() != null;
+    }
+
+    private final static class TypeResult {
+        private final static TypeDefinition[] NO_DEFINITIONS = new TypeDefinition[0];
+
+        final TypeReference type;
+        final TypeDefinition[] definitions;
+
+        TypeResult(final TypeReference type) {
+            final List<TypeDefinition> definitions = new ArrayList<>();
+
+            collectDefinitions(type, definitions);
+
+            this.type = type;
+            this.definitions = definitions.isEmpty() ? NO_DEFINITIONS
+                                                     : definitions.toArray(new TypeDefinition[definitions.size()]);
+        }
+
+        boolean isStale() {
+            for (final TypeDefinition definition : definitions) {
+                if (definition.isEvicted()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static void collectDefinitions(final TypeReference t, final List<TypeDefinition> definitions) {
+            if (t == null) {
+                return;
+            }
+
+            if (t instanceof TypeDefinition) {
+                definitions.add((TypeDefinition) t);
+            }
+            else if (t.isArray()) {
+                collectDefinitions(t.getElementType(), definitions);
+            }
+            else if (t.isWildcardType()) {
+                if (t.hasExtendsBound()) {
+                    collectDefinitions(t.getExtendsBound(), definitions);
+                }
+                if (t.hasSuperBound()) {
+                    collectDefinitions(t.getSuperBound(), definitions);
+                }
+            }
+            else if (t instanceof IGenericInstance) {
+                final IGenericInstance instance = (IGenericInstance) t;
+
+                if (instance.getGenericDefinition() instanceof TypeReference) {
+                    collectDefinitions((TypeReference) instance.getGenericDefinition(), definitions);
+                }
+
+                for (final TypeReference typeArgument : instance.getTypeArguments()) {
+                    collectDefinitions(typeArgument, definitions);
+                }
+            }
+            else if (t instanceof GenericParameter) {
+                //
+                // Don't follow the bounds, which may refer back to the parameter; the owner is
+                // enough to tell whether the parameter came from an evicted definition.
+                //
+                final IGenericParameterProvider owner = ((GenericParameter) t).getOwner();
+
+                if (owner instanceof TypeDefinition) {
+                    definitions.add((TypeDefinition) owner);
+                }
+                else if (owner instanceof MethodReference) {
+                    collectDefinitions(((MethodReference) owner).getDeclaringType(), definitions);
+                }
+            }
+        }
+    }
+
+    final static class Key {
+        private final int _relation;
+        private final Class<?> _kindA;
+        private final String _nameA;
+        private final Class<?> _kindB;
+        private final String _nameB;
+        private final int _hashCode;
+
+        private Key(final int relation, final TypeReference a, final TypeReference b) {
+            //
+            // Different kinds of references to the same type (e.g., a definition and an unresolved
+            // reference) need not answer every query the same way, so keep them apart.
+            //
+            _relation = relation;
+            _kindA = a.getClass();
+            _nameA = a.getInternalName();
+            _kindB = b.getClass();
+            _nameB = b.getInternalName();
+            _hashCode = 31 * (31 * (31 * relation + _nameA.hashCode()) + _nameB.hashCode()) + (_kindA.hashCode() ^ _kindB.hashCode());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+
+            return _hashCode == other._hashCode &&
+                   _relation == other._relation &&
+                   _kindA == other._kindA &&
+                   _kindB == other._kindB &&
+                   _nameA.equals(other._nameA) &&
+                   _nameB.equals(other._nameB);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hashCode;
+        }
+    }
+}
@@ -19,7 +19,7 @@ package com.strobel.decompiler.ast;
 import com.strobel.annotations.NotNull;
 import com.strobel.assembler.flowanalysis.ControlFlowEdge;
 import com.strobel.assembler.flowanalysis.ControlFlowGraph;
-import com.strobel.assembler.flowanalysis.ControlFlowGraphBuilder;
+import com.strobel.assembler.flowanalysis.ControlFlowGraphCache;
 import com.strobel.assembler.flowanalysis.ControlFlowNode;
 import com.strobel.assembler.flowanalysis.ControlFlowNodeType;
 import com.strobel.assembler.flowanalysis.JumpType;
@@ -48,6 +48,7 @@ public final class AstBuilder {
 
     private final Map<ExceptionHandler, ByteCode> _loadExceptions = new LinkedHashMap<>();
     private final Set<Instruction> _removed = new LinkedHashSet<>();
+    private final ControlFlowGraphCache _cfgCache = new ControlFlowGraphCache();
     private Map<Instruction, Instruction> _originalInstructionMap;
     private ControlFlowGraph _cfg;
     private InstructionCollection _instructions;
@@ -97,11 +98,13 @@ public final class AstBuilder {
         builder.pruneExceptionHandlers();
         builder.inlineSubroutines();
 
-        FinallyInlining.run(builder._body, builder._instructions, builder._exceptionHandlers, builder._removed);
+        FinallyInlining.run(builder._body, builder._instructions, builder._exceptionHandlers, builder._removed, builder._cfgCache);
 
-        builder._cfg = ControlFlowGraphBuilder.build(builder._instructions, builder._exceptionHandlers);
-        builder._cfg.computeDominance();
-        builder._cfg.computeDominanceFrontier();
+        //
+        // If neither subroutine nor finally inlining changed the shape of the method, this is the
+        // same graph they worked with.
+        //
+        builder._cfg = builder._cfgCache.get(builder._instructions, builder._exceptionHandlers);
 
         LOG.fine("Performing stack analysis...");
 
@@ -182,6 +185,8 @@ public final class AstBuilder {
             return;
         }
 
+        _cfgCache.invalidate();
+
         final List<ExceptionHandler> handlers = _exceptionHandlers;
         final Set<ExceptionHandler> originalHandlers = new HashSet<>(handlers);
         final List<SubroutineInfo> inlinedSubroutines = new ArrayList<>();
@@ -539,9 +544,7 @@ public final class AstBuilder {
             final boolean isLive = !_removed.contains(p);
 
             if (cfg == null) {
-                cfg = ControlFlowGraphBuilder.build(instructions, _exceptionHandlers);
-                cfg.computeDominance();
-                cfg.computeDominanceFrontier();
+                cfg = _cfgCache.get(instructions, _exceptionHandlers);
 
                 subroutineMap = new IdentityHashMap<>();
                 handlerContents = new IdentityHashMap<>();
@@ -1852,10 +1855,17 @@ public final class AstBuilder {
 
     @SuppressWarnings("ConstantConditions")
     private List<ByteCode> performStackAnalysis() {
-        final Set<ByteCode> handlerStarts = new HashSet<>();
-        final Map<Instruction, ByteCode> byteCodeMap = new LinkedHashMap<>();
-        final Map<Instruction, ControlFlowNode> nodeMap = new IdentityHashMap<>();
         final InstructionCollection instructions = _instructions;
+        final int instructionCount = instructions.size();
+
+        //
+        // Side tables are indexed by instruction ordinal (see InstructionCollection.ordinalOf()).
+        //
+        final ByteCode[] byteCodes = new ByteCode[instructionCount];
+        final ControlFlowNode[] nodes = new ControlFlowNode[instructionCount];
+        final boolean[] handlerStarts = new boolean[instructionCount];
+        final boolean[] sharedVariables = new boolean[instructionCount];
+
         final List<ExceptionHandler> exceptionHandlers = new ArrayList<>();
         final List<ControlFlowNode> successors = new ArrayList<>();
 
@@ -1872,7 +1882,11 @@ public final class AstBuilder {
                  p != null && p.getOffset() < node.getEnd().getEndOffset();
                  p = p.getNext()) {
 
-                nodeMap.put(p, node);
+                final int ordinal = instructions.ordinalOf(p);
+
+                if (ordinal >= 0) {
+                    nodes[ordinal] = node;
+                }
             }
         }
 
@@ -1886,7 +1900,8 @@ public final class AstBuilder {
 
         _factory = CoreMetadataFactory.make(_context.getCurrentType(), _context.getCurrentMethod());
 
-        for (final Instruction instruction : instructions) {
+        for (int i = 0; i < instructionCount; i++) {
+            final Instruction instruction = instructions.get(i);
             final OpCode opCode = instruction.getOpCode();
 
             AstCode code = CODES[opCode.ordinal()];
@@ -1915,7 +1930,7 @@ public final class AstBuilder {
             byteCode.popCount = InstructionHelper.getPopDelta(instruction, _body);
             byteCode.pushCount = InstructionHelper.getPushDelta(instruction, _body);
 
-            byteCodeMap.put(instruction, byteCode);
+            byteCodes[i] = byteCode;
             body.add(byteCode);
         }
 
@@ -1977,9 +1992,10 @@ public final class AstBuilder {
         }
 
         for (final ExceptionHandler handler : exceptionHandlers) {
-            final ByteCode handlerStart = byteCodeMap.get(handler.getHandlerBlock().getFirstInstruction());
+            final int handlerOrdinal = instructions.ordinalOf(handler.getHandlerBlock().getFirstInstruction());
+            final ByteCode handlerStart = byteCodes[handlerOrdinal];
 
-            handlerStarts.add(handlerStart);
+            handlerStarts[handlerOrdinal] = true;
 
             handlerStart.stackBefore = EMPTY_STACK;
             handlerStart.variablesBefore = VariableSlot.cloneVariableState(unknownVariables);
@@ -2021,6 +2037,7 @@ public final class AstBuilder {
         //
         while (!(agenda.isEmpty() && handlerAgenda.isEmpty())) {
             final ByteCode byteCode = agenda.isEmpty() ? handlerAgenda.removeFirst() : agenda.removeFirst();
+            final int ordinal = instructions.ordinalOf(byteCode.instruction);
 
             //
             // Calculate new stack.
@@ -2032,10 +2049,11 @@ public final class AstBuilder {
             final StackSlot[] newStack = createModifiedStack(byteCode, stackMapper);
 
             //
-            // Calculate new variable state.
+            // Calculate new variable state.  Most bytecodes leave it unchanged, so it is only
+            // copied once something is actually written to it.
             //
 
-            final VariableSlot[] newVariableState = VariableSlot.cloneVariableState(byteCode.variablesBefore);
+            VariableSlot[] newVariableState = byteCode.variablesBefore;
             final Map<Instruction, TypeReference> initializations = stackMapper.getInitializations();
 
             for (int i = 0; i < newVariableState.length; i++) {
@@ -2049,6 +2067,10 @@ public final class AstBuilder {
                         final TypeReference initializedType = initializations.get(instruction);
 
                         if (initializedType != null) {
+                            if (newVariableState == byteCode.variablesBefore) {
+                                newVariableState = VariableSlot.cloneVariableState(newVariableState);
+                            }
+
                             newVariableState[i] = new VariableSlot(
                                 FrameValue.makeReference(initializedType),
                                 slot.definitions
@@ -2061,6 +2083,10 @@ public final class AstBuilder {
             if (byteCode.isVariableDefinition()) {
                 final int slot = ((VariableReference) byteCode.operand).getSlot();
 
+                if (newVariableState == byteCode.variablesBefore) {
+                    newVariableState = VariableSlot.cloneVariableState(newVariableState);
+                }
+
                 newVariableState[slot] = new VariableSlot(
                     stackMapper.getLocalValue(slot),
                     new ByteCode[] { byteCode }
@@ -2078,7 +2104,7 @@ public final class AstBuilder {
             // Find all successors.
             //
             final ArrayList<ByteCode> branchTargets = new ArrayList<>();
-            final ControlFlowNode node = nodeMap.get(byteCode.instruction);
+            final ControlFlowNode node = nodes[ordinal];
 
             successors.clear();
 
@@ -2113,9 +2139,7 @@ public final class AstBuilder {
             for (final ControlFlowNode successor : node.getSuccessors()) {
                 if (successor.getExceptionHandler() != null) {
                     successors.add(
-                        nodeMap.get(
-                            successor.getExceptionHandler().getHandlerBlock().getFirstInstruction()
-                        )
+                        nodes[instructions.ordinalOf(successor.getExceptionHandler().getHandlerBlock().getFirstInstruction())]
                     );
                 }
             }
@@ -2125,8 +2149,7 @@ public final class AstBuilder {
                     continue;
                 }
 
-                final Instruction targetInstruction = successor.getStart();
-                final ByteCode target = byteCodeMap.get(targetInstruction);
+                final ByteCode target = byteCodes[instructions.ordinalOf(successor.getStart())];
 
                 if (target.label == null) {
                     target.label = new Label();
@@ -2140,7 +2163,10 @@ public final class AstBuilder {
             //
             // Apply the state to successors.
             //
+            boolean isNewStackTaken = false;
+
             for (final ByteCode branchTarget : branchTargets) {
+                final int targetOrdinal = instructions.ordinalOf(branchTarget.instruction);
                 final boolean isSubroutineJump = byteCode.code == AstCode.Jsr &&
                                                  byteCode.instruction.getOperand(0) == branchTarget.instruction;
 
@@ -2160,22 +2186,34 @@ public final class AstBuilder {
                 }
 
                 if (branchTarget.stackBefore == null && branchTarget.variablesBefore == null) {
-//                    if (branchTargets.size() == 1) {
-//                        branchTarget.stackBefore = effectiveStack;
-//                        branchTarget.variablesBefore = newVariableState;
-//                    }
-//                    else {
                     //
-                    // Do not share data for several bytecodes.
+                    // The new stack is referenced by nothing else, so the first target may take it as-is;
+                    // other targets get their own copy, as stack slots are replaced in place.  Variable
+                    // states are shared copy-on-write: every holder is marked, and a holder copies the
+                    // state before the first merge that changes it.
                     //
-                    branchTarget.stackBefore = StackSlot.modifyStack(effectiveStack, 0, null);
-                    branchTarget.variablesBefore = VariableSlot.cloneVariableState(newVariableState);
-//                    }
+                    if (effectiveStack != newStack) {
+                        branchTarget.stackBefore = effectiveStack;
+                    }
+                    else if (isNewStackTaken) {
+                        branchTarget.stackBefore = newStack.clone();
+                    }
+                    else {
+                        branchTarget.stackBefore = newStack;
+                        isNewStackTaken = true;
+                    }
+
+                    branchTarget.variablesBefore = newVariableState;
+                    sharedVariables[targetOrdinal] = true;
+
+                    if (newVariableState == byteCode.variablesBefore) {
+                        sharedVariables[ordinal] = true;
+                    }
 
                     agenda.push(branchTarget);
                 }
                 else {
-                    final boolean isHandlerStart = handlerStarts.contains(branchTarget);
+                    final boolean isHandlerStart = handlerStarts[targetOrdinal];
 
                     if (branchTarget.stackBefore.length != effectiveStack.length && !isHandlerStart && !isSubroutineJump) {
                         throw new IllegalStateException(
@@ -2186,7 +2224,7 @@ public final class AstBuilder {
 
                     //
                     // Be careful not to change our new data; it might be reused for several branch targets.
-                    // In general, be careful that two bytecodes never share data structures.
+                    // Variable states may be shared, so copy them before modifying them.
                     //
 
                     boolean modified = false;
@@ -2209,6 +2247,13 @@ public final class AstBuilder {
                     final List<FrameValue> locals = mergedFrame.getLocalValues();
 
                     if (!isHandlerStart) {
+                        if (branchTarget.stackBefore == effectiveStack) {
+                            //
+                            // We handed our new stack to this target earlier in this loop.
+                            //
+                            branchTarget.stackBefore = effectiveStack.clone();
+                        }
+
                         final StackSlot[] oldStack = branchTarget.stackBefore;
 
                         final int oldStart = oldStack != null && oldStack.length > stackSize ? oldStack.length - 1
@@ -2248,6 +2293,11 @@ public final class AstBuilder {
                         final ByteCode[] newDefinitions = ArrayUtilities.union(oldSlot.definitions, newSlot.definitions);
 
                         if (!Comparer.equals(oldLocal, newLocal) || newDefinitions.length > oldDefinitions.length) {
+                            if (sharedVariables[targetOrdinal] || branchTarget.variablesBefore == newVariableState) {
+                                branchTarget.variablesBefore = VariableSlot.cloneVariableState(branchTarget.variablesBefore);
+                                sharedVariables[targetOrdinal] = false;
+                            }
+
                             branchTarget.variablesBefore[i] = new VariableSlot(newLocal, newDefinitions);
                             modified = true;
                         }
@@ -2453,14 +2503,13 @@ public final class AstBuilder {
                 final Label[] newOperand = new Label[branchTargets.length];
 
                 for (int i = 0; i < branchTargets.length; i++) {
-                    newOperand[i] = byteCodeMap.get(branchTargets[i]).label;
+                    newOperand[i] = byteCodes[instructions.ordinalOf(branchTargets[i])].label;
                 }
 
                 byteCode.operand = newOperand;
             }
             else if (byteCode.operand instanceof Instruction) {
-                //noinspection SuspiciousMethodCalls
-                byteCode.operand = byteCodeMap.get(byteCode.operand).label;
+                byteCode.operand = byteCodes[instructions.ordinalOf((Instruction) byteCode.operand)].label;
             }
             else if (byteCode.operand instanceof SwitchInfo) {
                 final SwitchInfo switchInfo = (SwitchInfo) byteCode.operand;
@@ -2468,7 +2517,7 @@ public final class AstBuilder {
                 final Label[] newOperand = new Label[branchTargets.length];
 
                 for (int i = 0; i < branchTargets.length; i++) {
-                    newOperand[i] = byteCodeMap.get(branchTargets[i]).label;
+                    newOperand[i] = byteCodes[instructions.ordinalOf(branchTargets[i])].label;
                 }
 
                 byteCode.operand = newOperand;
@@ -2495,13 +2544,17 @@ public final class AstBuilder {
 
     private static StackSlot[] createModifiedStack(final ByteCode byteCode, final StackMappingVisitor stackMapper) {
         final Map<Instruction, TypeReference> initializations = stackMapper.getInitializations();
-        final StackSlot[] oldStack = byteCode.stackBefore.clone();
+        StackSlot[] oldStack = byteCode.stackBefore;
 
         for (int i = 0; i < oldStack.length; i++) {
             if (oldStack[i].value.getParameter() instanceof Instruction) {
                 final TypeReference initializedType = initializations.get(oldStack[i].value.getParameter());
 
                 if (initializedType != null) {
+                    if (oldStack == byteCode.stackBefore) {
+                        oldStack = oldStack.clone();
+                    }
+
                     oldStack[i] = new StackSlot(
                         FrameValue.makeReference(initializedType),
                         oldStack[i].definitions,
@@ -2512,7 +2565,10 @@ public final class AstBuilder {
         }
 
         if (byteCode.popCount == 0 && byteCode.pushCount == 0) {
-            return oldStack;
+            //
+            // The caller hands the result to successors, so it must never be our own stack.
+            //
+            return oldStack == byteCode.stackBefore ? oldStack.clone() : oldStack;
         }
 
         switch (byteCode.code) {
@@ -4150,6 +4206,7 @@ public final class AstBuilder {
         private final InstructionCollection _instructions;
         private final List<ExceptionHandler> _exceptionHandlers;
         private final Set<Instruction> _removed;
+        private final ControlFlowGraphCache _cfgCache;
         private final Function<Instruction, Instruction> _previous;
         private final ControlFlowGraph _cfg;
 
@@ -4162,12 +4219,14 @@ public final class AstBuilder {
             final MethodBody body,
             final InstructionCollection instructions,
             final List<ExceptionHandler> handlers,
-            final Set<Instruction> removedInstructions) {
+            final Set<Instruction> removedInstructions,
+            final ControlFlowGraphCache cfgCache) {
 
             _body = body;
             _instructions = instructions;
             _exceptionHandlers = handlers;
             _removed = removedInstructions;
+            _cfgCache = cfgCache;
             _previous = new Function<Instruction, Instruction>() {
                 @Override
                 public Instruction apply(final Instruction i) {
@@ -4177,9 +4236,7 @@ public final class AstBuilder {
 
             preProcess();
 
-            _cfg = ControlFlowGraphBuilder.build(instructions, handlers);
-            _cfg.computeDominance();
-            _cfg.computeDominanceFrontier();
+            _cfg = cfgCache.get(instructions, handlers);
             _nodeMap = createNodeMap(_cfg);
 
             final Set<ControlFlowNode> terminals = new HashSet<>();
@@ -4283,14 +4340,15 @@ public final class AstBuilder {
             final MethodBody body,
             final InstructionCollection instructions,
             final List<ExceptionHandler> handlers,
-            final Set<Instruction> removedInstructions) {
+            final Set<Instruction> removedInstructions,
+            final ControlFlowGraphCache cfgCache) {
 
             Collections.reverse(handlers);
 
             try {
                 LOG.fine("Removing inlined `finally` code...");
 
-                final FinallyInlining inlining = new FinallyInlining(body, instructions, handlers, removedInstructions);
+                final FinallyInlining inlining = new FinallyInlining(body, instructions, handlers, removedInstructions, cfgCache);
 
                 inlining.runCore();
             }
@@ -4503,6 +4561,8 @@ public final class AstBuilder {
 
                                 target.setOpCode(OpCode.NOP);
                                 target.setOperand(null);
+
+                                _cfgCache.opCodeChanged(target, OpCode.JSR);
                             }
                         }
                     }
@@ -4535,6 +4595,8 @@ public final class AstBuilder {
                         final Instruction load = InstructionHelper.reverseLoadOrStore(tail);
                         final Instruction returnSite = node.getEnd();
                         final Instruction loadSite = returnSite.getPrevious();
+                        final OpCode oldLoadSiteOpCode = loadSite.getOpCode();
+                        final OpCode oldReturnSiteOpCode = returnSite.getOpCode();
 
                         loadSite.setOpCode(load.getOpCode());
 
@@ -4562,6 +4624,9 @@ public final class AstBuilder {
 
                         returnSite.setOperand(null);
 
+                        _cfgCache.opCodeChanged(loadSite, oldLoadSiteOpCode);
+                        _cfgCache.opCodeChanged(returnSite, oldReturnSiteOpCode);
+
                         _removed.remove(loadSite);
                         _removed.remove(returnSite);
                     }
@@ -4685,10 +4750,7 @@ public final class AstBuilder {
         private void preProcess() {
             final InstructionCollection instructions = _instructions;
             final List<ExceptionHandler> handlers = _exceptionHandlers;
-            final ControlFlowGraph cfg = ControlFlowGraphBuilder.build(instructions, handlers);
-
-            cfg.computeDominance();
-            cfg.computeDominanceFrontier();
+            final ControlFlowGraph cfg = _cfgCache.get(instructions, handlers);
 
             for (int i = 0; i < handlers.size(); i++) {
                 final ExceptionHandler handler = handlers.get(i);
@@ -4721,6 +4783,8 @@ public final class AstBuilder {
                             nextToLast.getOpCode().isLoad() &&
                             InstructionHelper.getLoadOrStoreSlot(first) == InstructionHelper.getLoadOrStoreSlot(nextToLast)) {
 
+                            final OpCode oldNextToLastOpCode = nextToLast.getOpCode();
+
                             nextToLast.setOpCode(OpCode.NOP);
                             nextToLast.setOperand(null);
 
@@ -4729,6 +4793,9 @@ public final class AstBuilder {
                             last.setOpCode(OpCode.ENDFINALLY);
                             last.setOperand(null);
 
+                            _cfgCache.opCodeChanged(nextToLast, oldNextToLastOpCode);
+                            _cfgCache.opCodeChanged(last, OpCode.ATHROW);
+
                             break;
                         }
 
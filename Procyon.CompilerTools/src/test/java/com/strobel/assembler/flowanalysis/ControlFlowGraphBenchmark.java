@@ -0,0 +1,42 @@
+package com.strobel.assembler.flowanalysis;
+
+import static com.strobel.assembler.flowanalysis.ControlFlowGraphTests.*;
+
+/**
+ * Times {@link ControlFlowGraph#computeDominance()} against the iterative algorithm it replaced, on
+ * graphs the size of the largest methods a class file can hold.  This is not a unit test, so the
+ * test task does not run it; run {@link #main} by hand.  It also checks that both algorithms agree
+ * on these graphs; {@link ControlFlowGraphTests} only checks smaller graphs of the same shapes.
+ */
+public final class ControlFlowGraphBenchmark {
+    private final static int RUNS = 3;
+
+    public static void main(final String... args) throws Throwable {
+        for (final int[] shape : LARGE_METHOD_SHAPES) {
+            final ControlFlowGraph expected = stateMachineGraph(shape[0], shape[1]);
+            final ControlFlowGraph actual = stateMachineGraph(shape[0], shape[1]);
+
+            long iterativeNanos = Long.MAX_VALUE;
+            long currentNanos = Long.MAX_VALUE;
+
+            for (int i = 0; i < RUNS; i++) {
+                iterativeNanos = Math.min(iterativeNanos, computeDominance(expected, true));
+                currentNanos = Math.min(currentNanos, computeDominance(actual, false));
+            }
+
+            expected.computeDominanceFrontier();
+            actual.computeDominanceFrontier();
+
+            assertSameDominance(expected, actual);
+
+            System.out.printf(
+                "Dominance on %d blocks (%d cases x %d conditionals): %.2f ms iterative, %.2f ms current%n",
+                actual.getNodes().size(),
+                shape[0],
+                shape[1],
+                iterativeNanos / 1e6,
+                currentNanos / 1e6
+            );
+        }
+    }
+}
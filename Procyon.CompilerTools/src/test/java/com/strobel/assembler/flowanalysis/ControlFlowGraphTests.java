@@ -0,0 +1,512 @@
+package com.strobel.assembler.flowanalysis;
+
+import com.strobel.assembler.ir.ExceptionHandler;
+import com.strobel.assembler.ir.Instruction;
+import com.strobel.assembler.ir.OpCode;
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.MethodBody;
+import com.strobel.assembler.metadata.MethodDefinition;
+import com.strobel.assembler.metadata.TypeDefinition;
+import com.strobel.core.BooleanBox;
+import com.strobel.functions.Block;
+import com.strobel.functions.Function;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ControlFlowGraphTests {
+    //
+    // A 64 KB method holds somewhere around 8,000 basic blocks.  The first graph is shaped like a
+    // generated parser (a loop around a switch, each case a run of conditionals); the second is one
+    // long run of conditionals, which makes for a very deep dominator tree.  Each shape is a number
+    // of cases and a number of conditionals per case.  Only ControlFlowGraphBenchmark runs these;
+    // the old algorithm is quadratic, so the tests use scaled-down versions of the same shapes.
+    //
+    final static int[][] LARGE_METHOD_SHAPES = {
+        { 128, 31 },
+        { 1, 3970 }
+    };
+
+    private final static int[][] SMALL_METHOD_SHAPES = {
+        { 8, 6 },
+        { 1, 200 }
+    };
+
+    @Test
+    public void testDominanceMatchesIterativeAlgorithm() {
+        final Random random = new Random(0x5EEDL);
+
+        for (int i = 0; i < 500; i++) {
+            final long seed = random.nextLong();
+            final int size = 4 + random.nextInt(60);
+
+            final ControlFlowGraph expected = randomGraph(new Random(seed), size);
+            final ControlFlowGraph actual = randomGraph(new Random(seed), size);
+
+            computeDominanceIteratively(expected);
+            expected.computeDominanceFrontier();
+
+            actual.computeDominance();
+            actual.computeDominanceFrontier();
+
+            assertSameDominance(expected, actual);
+        }
+    }
+
+    @Test
+    public void testDominanceOnStateMachines() {
+        for (final int[] shape : SMALL_METHOD_SHAPES) {
+            final ControlFlowGraph expected = stateMachineGraph(shape[0], shape[1]);
+            final ControlFlowGraph actual = stateMachineGraph(shape[0], shape[1]);
+
+            computeDominanceIteratively(expected);
+            actual.computeDominance();
+
+            expected.computeDominanceFrontier();
+            actual.computeDominanceFrontier();
+
+            assertSameDominance(expected, actual);
+        }
+    }
+
+    @Test
+    public void testDominatesMatchesDominatorChain() {
+        final Random random = new Random(0xD0D0L);
+
+        for (int i = 0; i < 200; i++) {
+            final ControlFlowGraph graph = randomGraph(random, 4 + random.nextInt(40));
+            final List<ControlFlowNode> nodes = graph.getNodes();
+
+            graph.computeDominance();
+
+            for (final ControlFlowNode a : nodes) {
+                for (final ControlFlowNode b : nodes) {
+                    assertEquals(isOnDominatorChain(a, b), a.dominates(b));
+                }
+            }
+        }
+
+        //
+        // Changing the tree by hand must not leave stale intervals behind.
+        //
+        final ControlFlowGraph graph = stateMachineGraph(2, 2);
+        final ControlFlowNode exceptionalExit = graph.getExceptionalExit();
+        final ControlFlowNode firstCase = graph.getNodes().get(5);
+
+        graph.computeDominance();
+
+        assertFalse(firstCase.dominates(exceptionalExit));
+
+        exceptionalExit.setImmediateDominator(firstCase);
+
+        assertTrue(firstCase.dominates(exceptionalExit));
+        assertTrue(graph.getEntryPoint().dominates(exceptionalExit));
+    }
+
+    @Test
+    public void testTraversalsOfDeepGraphs() {
+        final ControlFlowGraph graph = stateMachineGraph(1, 100000);
+        final List<Integer> preOrder = new ArrayList<>();
+        final List<Integer> postOrder = new ArrayList<>();
+
+        final Function<ControlFlowNode, Iterable<ControlFlowNode>> successors = new Function<ControlFlowNode, Iterable<ControlFlowNode>>() {
+            @Override
+            public Iterable<ControlFlowNode> apply(final ControlFlowNode input) {
+                return input.getSuccessors();
+            }
+        };
+
+        graph.resetVisited();
+        graph.getEntryPoint().traversePreOrder(
+            successors,
+            new Block<ControlFlowNode>() {
+                @Override
+                public void accept(final ControlFlowNode input) {
+                    preOrder.add(input.getBlockIndex());
+                }
+            }
+        );
+
+        graph.resetVisited();
+        graph.getEntryPoint().traversePostOrder(
+            successors,
+            new Block<ControlFlowNode>() {
+                @Override
+                public void accept(final ControlFlowNode input) {
+                    postOrder.add(input.getBlockIndex());
+                }
+            }
+        );
+
+        final int size = graph.getNodes().size();
+
+        assertEquals(size, preOrder.size());
+        assertEquals(size, postOrder.size());
+
+        //
+        // Entry, header, dispatch, the first block of the case, then each conditional's 'then'
+        // block before its join.  Post-order starts from the last join and the exceptional exit,
+        // and reaches the regular exit only on the way back out through the loop header.
+        //
+        assertEquals(Arrays.asList(0, 3, 4, 5, 6), preOrder.subList(0, 5));
+        assertEquals(Arrays.asList(size - 1, 2), postOrder.subList(0, 2));
+        assertEquals(Arrays.asList(4, 1, 3, 0), postOrder.subList(size - 4, size));
+
+        graph.computeDominance();
+        graph.computeDominanceFrontier();
+
+        assertTrue(graph.getEntryPoint().dominates(graph.getNodes().get(size - 1)));
+    }
+
+    @Test
+    public void testCachedGraphIsReusedUntilControlFlowChanges() {
+        final TypeDefinition type = new MetadataSystem().lookupType(SampleType.class.getName().replace('.', '/')).resolve();
+
+        MethodBody body = null;
+
+        for (final MethodDefinition method : type.getDeclaredMethods()) {
+            if ("withHandlers".equals(method.getName())) {
+                body = method.getBody();
+            }
+        }
+
+        assertNotNull(body);
+
+        final List<Instruction> instructions = body.getInstructions();
+        final List<ExceptionHandler> handlers = new ArrayList<>(body.getExceptionHandlers());
+        final ControlFlowGraphCache cache = new ControlFlowGraphCache();
+        final ControlFlowGraph graph = cache.get(instructions, handlers);
+
+        assertTrue(handlers.size() > 1);
+        assertSame(graph, cache.get(instructions, handlers));
+        assertEquals(1, cache.getBuildCount());
+
+        //
+        // Turning a load into a no-op leaves the graph as it was...
+        //
+        Instruction load = null;
+        Instruction branch = null;
+
+        for (final Instruction instruction : instructions) {
+            if (load == null && instruction.getOpCode().isLoad()) {
+                load = instruction;
+            }
+            else if (branch == null && instruction.getOpCode().isGoto()) {
+                branch = instruction;
+            }
+        }
+
+        assertNotNull(load);
+        assertNotNull(branch);
+
+        final OpCode loadOpCode = load.getOpCode();
+
+        load.setOpCode(OpCode.NOP);
+        cache.opCodeChanged(load, loadOpCode);
+
+        assertSame(graph, cache.get(instructions, handlers));
+
+        //
+        // ...but reordering the handlers or rewriting a branch does not.
+        //
+        Collections.reverse(handlers);
+
+        final ControlFlowGraph reversed = cache.get(instructions, handlers);
+
+        assertNotSame(graph, reversed);
+
+        branch.setOpCode(OpCode.RETURN);
+        branch.setOperand(null);
+        cache.opCodeChanged(branch, OpCode.GOTO);
+
+        assertNotSame(reversed, cache.get(instructions, handlers));
+        assertEquals(3, cache.getBuildCount());
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static class SampleType {
+        static int withHandlers(final int[] values) {
+            int sum = 0;
+
+            try {
+                for (final int value : values) {
+                    sum += value;
+                }
+            }
+            catch (final IllegalStateException e) {
+                sum = -1;
+            }
+            catch (final RuntimeException e) {
+                sum = -2;
+            }
+
+            return sum;
+        }
+    }
+
+    private static boolean isOnDominatorChain(final ControlFlowNode a, final ControlFlowNode b) {
+        for (ControlFlowNode current = b; current != null; current = current.getImmediateDominator()) {
+            if (current == a) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the dominator tree of {@code graph} with either the current or the old (iterative)
+     * algorithm, and returns how long that took in nanoseconds.
+     */
+    static long computeDominance(final ControlFlowGraph graph, final boolean iterative) throws Throwable {
+        final Throwable[] error = new Throwable[1];
+        final long[] elapsed = new long[1];
+
+        //
+        // The old algorithm recurses once per node along the deepest path, so give it room.
+        //
+        final Thread thread = new Thread(
+            null,
+            new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (final ControlFlowNode node : graph.getNodes()) {
+                            node.setImmediateDominator(null);
+                            node.getDominatorTreeChildren().clear();
+                        }
+
+                        final long start = System.nanoTime();
+
+                        if (iterative) {
+                            computeDominanceIteratively(graph);
+                        }
+                        else {
+                            graph.computeDominance();
+                        }
+
+                        elapsed[0] = System.nanoTime() - start;
+                    }
+                    catch (final Throwable t) {
+                        error[0] = t;
+                    }
+                }
+            },
+            "dominance",
+            256L * 1024 * 1024
+        );
+
+        thread.start();
+        thread.join();
+
+        if (error[0] != null) {
+            throw error[0];
+        }
+
+        return elapsed[0];
+    }
+
+    static void assertSameDominance(final ControlFlowGraph expected, final ControlFlowGraph actual) {
+        final List<ControlFlowNode> expectedNodes = expected.getNodes();
+        final List<ControlFlowNode> actualNodes = actual.getNodes();
+
+        assertEquals(expectedNodes.size(), actualNodes.size());
+
+        for (int i = 0; i < expectedNodes.size(); i++) {
+            final ControlFlowNode e = expectedNodes.get(i);
+            final ControlFlowNode a = actualNodes.get(i);
+
+            assertEquals(indexOf(e.getImmediateDominator()), indexOf(a.getImmediateDominator()));
+            assertEquals(indexes(e.getDominatorTreeChildren()), indexes(a.getDominatorTreeChildren()));
+            assertEquals(indexes(e.getDominanceFrontier()), indexes(a.getDominanceFrontier()));
+        }
+    }
+
+    private static int indexOf(final ControlFlowNode node) {
+        return node != null ? node.getBlockIndex() : -1;
+    }
+
+    private static List<Integer> indexes(final Iterable<ControlFlowNode> nodes) {
+        final List<Integer> indexes = new ArrayList<>();
+
+        for (final ControlFlowNode node : nodes) {
+            indexes.add(node.getBlockIndex());
+        }
+
+        return indexes;
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Graphs">
+
+    private static ControlFlowGraph randomGraph(final Random random, final int size) {
+        final GraphBuilder builder = new GraphBuilder();
+        final List<ControlFlowNode> nodes = new ArrayList<>();
+
+        for (int i = 0; i < size; i++) {
+            nodes.add(builder.node());
+        }
+
+        builder.edge(builder.entryPoint, nodes.get(0));
+
+        for (int i = 0; i < size; i++) {
+            final ControlFlowNode node = nodes.get(i);
+
+            //
+            // Mostly fall through to the next block, with arbitrary jumps mixed in; those make
+            // for irreducible loops, self loops, duplicate edges, and unreachable blocks.
+            //
+            if (i + 1 < size && random.nextInt(4) != 0) {
+                builder.edge(node, nodes.get(i + 1));
+            }
+
+            for (int j = random.nextInt(3); j > 0; j--) {
+                builder.edge(node, nodes.get(random.nextInt(size)));
+            }
+
+            if (random.nextInt(8) == 0) {
+                builder.edge(node, builder.exceptionalExit);
+            }
+        }
+
+        builder.edge(nodes.get(size - 1), builder.regularExit);
+
+        return builder.build();
+    }
+
+    static ControlFlowGraph stateMachineGraph(final int cases, final int conditionals) {
+        final GraphBuilder builder = new GraphBuilder();
+        final ControlFlowNode header = builder.node();
+        final ControlFlowNode dispatch = builder.node();
+
+        builder.edge(builder.entryPoint, header);
+        builder.edge(header, dispatch);
+        builder.edge(header, builder.regularExit);
+
+        for (int i = 0; i < cases; i++) {
+            ControlFlowNode current = builder.node();
+
+            builder.edge(dispatch, current);
+
+            for (int j = 0; j < conditionals; j++) {
+                final ControlFlowNode then = builder.node();
+                final ControlFlowNode join = builder.node();
+
+                builder.edge(current, then);
+                builder.edge(current, join);
+                builder.edge(then, join);
+                builder.edge(then, builder.exceptionalExit);
+
+                current = join;
+            }
+
+            builder.edge(current, header);
+        }
+
+        return builder.build();
+    }
+
+    private final static class GraphBuilder {
+        final List<ControlFlowNode> nodes = new ArrayList<>();
+        final ControlFlowNode entryPoint = add(ControlFlowNodeType.EntryPoint);
+        final ControlFlowNode regularExit = add(ControlFlowNodeType.RegularExit);
+        final ControlFlowNode exceptionalExit = add(ControlFlowNodeType.ExceptionalExit);
+
+        ControlFlowNode node() {
+            return add(ControlFlowNodeType.Normal);
+        }
+
+        void edge(final ControlFlowNode source, final ControlFlowNode target) {
+            final ControlFlowEdge edge = new ControlFlowEdge(source, target, JumpType.Normal);
+
+            source.getOutgoing().add(edge);
+            target.getIncoming().add(edge);
+        }
+
+        ControlFlowGraph build() {
+            return new ControlFlowGraph(nodes.toArray(new ControlFlowNode[nodes.size()]));
+        }
+
+        private ControlFlowNode add(final ControlFlowNodeType nodeType) {
+            final ControlFlowNode node = new ControlFlowNode(nodes.size(), nodes.size(), nodeType);
+            nodes.add(node);
+            return node;
+        }
+    }
+
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Reference Algorithm">
+
+    //
+    // The algorithm ControlFlowGraph.computeDominance() used to implement: iterate pre-order
+    // passes until stable, merging predecessors with findCommonDominator().
+    //
+    private static void computeDominanceIteratively(final ControlFlowGraph graph) {
+        final ControlFlowNode entryPoint = graph.getEntryPoint();
+
+        entryPoint.setImmediateDominator(entryPoint);
+
+        final BooleanBox changed = new BooleanBox(true);
+
+        while (changed.get()) {
+            changed.set(false);
+            graph.resetVisited();
+
+            entryPoint.traversePreOrder(
+                new Function<ControlFlowNode, Iterable<ControlFlowNode>>() {
+                    @Override
+                    public final Iterable<ControlFlowNode> apply(final ControlFlowNode input) {
+                        return input.getSuccessors();
+                    }
+                },
+                new Block<ControlFlowNode>() {
+                    @Override
+                    public final void accept(final ControlFlowNode b) {
+                        if (b == entryPoint) {
+                            return;
+                        }
+
+                        ControlFlowNode newImmediateDominator = null;
+
+                        for (final ControlFlowNode p : b.getPredecessors()) {
+                            if (p.isVisited() && p != b) {
+                                newImmediateDominator = p;
+                                break;
+                            }
+                        }
+
+                        assertNotNull(newImmediateDominator);
+
+                        for (final ControlFlowNode p : b.getPredecessors()) {
+                            if (p != b && p.getImmediateDominator() != null) {
+                                newImmediateDominator = ControlFlowGraph.findCommonDominator(p, newImmediateDominator);
+                            }
+                        }
+
+                        if (b.getImmediateDominator() != newImmediateDominator) {
+                            b.setImmediateDominator(newImmediateDominator);
+                            changed.set(true);
+                        }
+                    }
+                }
+            );
+        }
+
+        entryPoint.setImmediateDominator(null);
+
+        for (final ControlFlowNode node : graph.getNodes()) {
+            final ControlFlowNode immediateDominator = node.getImmediateDominator();
+
+            if (immediateDominator != null) {
+                immediateDominator.getDominatorTreeChildren().add(node);
+            }
+        }
+    }
+
+    // </editor-fold>
+}
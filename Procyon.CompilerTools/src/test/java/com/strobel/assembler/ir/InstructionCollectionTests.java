@@ -0,0 +1,85 @@
+package com.strobel.assembler.ir;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InstructionCollectionTests {
+    @Test
+    public void testOffsetAndOrdinalLookups() {
+        final InstructionCollection instructions = new InstructionCollection();
+
+        for (int i = 0; i < 100; i++) {
+            final Instruction instruction = i % 3 == 0 ? new Instruction(OpCode.ICONST_0) : new Instruction(OpCode.BIPUSH, 1);
+
+            instruction.setOffset(instructions.isEmpty() ? 0 : instructions.get(i - 1).getEndOffset());
+            instructions.add(instruction);
+
+            //
+            // Look up earlier instructions while appending, as the method reader does for
+            // backward branches.
+            //
+            assertSame(instructions.get(i / 2), instructions.atOffset(instructions.get(i / 2).getOffset()));
+        }
+
+        //
+        // Once the reader is done with it, the index is dropped and rebuilt on the next lookup.
+        //
+        instructions.releaseIndex();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            final Instruction instruction = instructions.get(i);
+
+            assertSame(instruction, instructions.atOffset(instruction.getOffset()));
+            assertEquals(i, instructions.ordinalOf(instruction));
+        }
+
+        assertNull(instructions.tryGetAtOffset(2));
+        assertNull(instructions.tryGetAtOffset(instructions.get(99).getEndOffset()));
+        assertEquals(-1, instructions.ordinalOf(new Instruction(0, OpCode.ICONST_0)));
+
+        //
+        // Inserting shifts ordinals; offsets are only meaningful again once recomputed.
+        //
+        final Instruction inserted = new Instruction(OpCode.NOP);
+
+        instructions.add(10, inserted);
+        instructions.recomputeOffsets();
+
+        assertEquals(10, instructions.ordinalOf(inserted));
+        assertEquals(11, instructions.ordinalOf(instructions.get(11)));
+        assertSame(inserted, instructions.atOffset(inserted.getOffset()));
+
+        instructions.remove(inserted);
+
+        assertEquals(-1, instructions.ordinalOf(inserted));
+        assertEquals(10, instructions.ordinalOf(instructions.get(10)));
+    }
+
+    @Test
+    public void testLookupsWithUnorderedOffsets() {
+        final InstructionCollection instructions = new InstructionCollection();
+        final Instruction first = new Instruction(0, OpCode.NOP);
+        final Instruction second = new Instruction(1, OpCode.NOP);
+        final Instruction third = new Instruction(2, OpCode.NOP);
+
+        instructions.add(first);
+        instructions.add(second);
+        instructions.add(third);
+
+        assertSame(second, instructions.atOffset(1));
+
+        //
+        // Moving an instruction without recomputing offsets must not leave a stale answer.
+        //
+        second.setOffset(5);
+
+        assertNull(instructions.tryGetAtOffset(1));
+        assertEquals(1, instructions.ordinalOf(second));
+
+        third.setOffset(0);
+
+        assertEquals(2, instructions.ordinalOf(third));
+        assertNotNull(instructions.tryGetAtOffset(0));
+    }
+}
@@ -274,4 +274,26 @@ public class MetadataHelperTests {
         assertSameType(genericArrayList, t8);
         assertSameType(rawArrayList, t9);
     }
+
+    @Test
+    public void testTypeRelationsAreCached() throws Throwable {
+        final MetadataSystem metadataSystem = new MetadataSystem();
+
+        final TypeReference string = metadataSystem.lookupType("java/lang/String");
+        final TypeReference integer = metadataSystem.lookupType("java/lang/Integer");
+        final TypeReference charSequence = metadataSystem.lookupType("java/lang/CharSequence");
+        final TypeReference number = metadataSystem.lookupType("java/lang/Number");
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(MetadataHelper.isSubType(string, charSequence));
+            assertFalse(MetadataHelper.isSubType(charSequence, string));
+            assertFalse(MetadataHelper.isSubType(integer, charSequence));
+            assertSameType(number, MetadataHelper.findCommonSuperType(integer, number));
+            assertSameType(charSequence, MetadataHelper.asSuper(charSequence, string));
+            assertNull(MetadataHelper.asSuper(string, integer));
+        }
+
+        assertTrue(metadataSystem.getTypeRelationCacheHitCount() > 0);
+        assertTrue(metadataSystem.getTypeRelationCacheMissCount() > 0);
+    }
 }
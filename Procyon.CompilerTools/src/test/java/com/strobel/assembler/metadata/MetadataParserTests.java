@@ -41,4 +41,33 @@ public class MetadataParserTests {
 
         assertNotNull(method2);
     }
+
+    @Test
+    public void testCachedSignaturesAreReifiedInCurrentGenericContext() throws Throwable {
+        final MetadataSystem metadataSystem = new MetadataSystem();
+        final MetadataParser parser = new MetadataParser(metadataSystem);
+
+        final TypeDefinition listType = metadataSystem.lookupType("java/util/List").resolve();
+        final TypeDefinition setType = metadataSystem.lookupType("java/util/Set").resolve();
+
+        assertNotNull(listType);
+        assertNotNull(setType);
+
+        final long hitCount = metadataSystem.getSignatureCacheHitCount();
+
+        parser.pushGenericContext(listType);
+
+        final TypeReference listElement = parser.parseTypeSignature("TE;");
+
+        parser.popGenericContext();
+        parser.pushGenericContext(setType);
+
+        final TypeReference setElement = parser.parseTypeSignature("TE;");
+
+        parser.popGenericContext();
+
+        assertSame(listType.getGenericParameters().get(0), listElement);
+        assertSame(setType.getGenericParameters().get(0), setElement);
+        assertTrue(metadataSystem.getSignatureCacheHitCount() > hitCount);
+    }
 }
@@ -8,6 +8,7 @@ import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 public class MetadataResolverTests {
     @Test
@@ -37,6 +38,34 @@ public class MetadataResolverTests {
         }
     }
 
+    @Test
+    public void testInheritedMemberResolution() throws Throwable {
+        final MetadataSystem metadataSystem = new MetadataSystem();
+        final MetadataParser parser = new MetadataParser(metadataSystem);
+        final TypeReference derivedType = parser.parseTypeDescriptor(DerivedType.class.getName().replace('.', '/'));
+        final TypeDefinition baseType = metadataSystem.lookupType(BaseType.class.getName().replace('.', '/')).resolve();
+
+        final MethodReference inherited = parser.parseMethod(derivedType, "describe", "()Ljava/lang/String;");
+        final MethodReference overload = parser.parseMethod(derivedType, "describe", "(I)Ljava/lang/String;");
+        final FieldReference field = parser.parseField(derivedType, "name", "Ljava/lang/String;");
+
+        final MethodDefinition inheritedDefinition = inherited.resolve();
+        final MethodDefinition overloadDefinition = overload.resolve();
+        final FieldDefinition fieldDefinition = field.resolve();
+
+        assertNotNull(inheritedDefinition);
+        assertNotNull(overloadDefinition);
+        assertNotNull(fieldDefinition);
+
+        assertSame(baseType, inheritedDefinition.getDeclaringType());
+        assertEquals(derivedType.getInternalName(), overloadDefinition.getDeclaringType().getInternalName());
+        assertSame(baseType, fieldDefinition.getDeclaringType());
+
+        assertSame(inheritedDefinition, parser.parseMethod(derivedType, "describe", "()Ljava/lang/String;").resolve());
+        assertSame(overloadDefinition, parser.parseMethod(derivedType, "describe", "(I)Ljava/lang/String;").resolve());
+        assertSame(fieldDefinition, parser.parseField(derivedType, "name", "Ljava/lang/String;").resolve());
+    }
+
     // <editor-fold defaultstate="collapsed" desc="Helper Classes">
 
     @SuppressWarnings("unused")
@@ -48,5 +77,21 @@ public class MetadataResolverTests {
         }
     }
 
+    @SuppressWarnings("unused")
+    private static class BaseType {
+        String name;
+
+        public String describe() {
+            return name;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static final class DerivedType extends BaseType {
+        public String describe(final int indent) {
+            return describe();
+        }
+    }
+
     // </editor-fold>
 }
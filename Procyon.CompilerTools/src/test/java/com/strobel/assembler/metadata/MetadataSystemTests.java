@@ -0,0 +1,662 @@
+package com.strobel.assembler.metadata;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetadataSystemTests {
+    @Test
+    public void testConcurrentResolutionLoadsTypeOnce() throws Throwable {
+        final String typeName = SampleType.class.getName().replace('.', '/');
+        final SlowTypeLoader typeLoader = new SlowTypeLoader(typeName);
+        final MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
+
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final List<Future<TypeDefinition>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threadCount; i++) {
+                results.add(
+                    executor.submit(
+                        new Callable<TypeDefinition>() {
+                            @Override
+                            public TypeDefinition call() throws Exception {
+                                start.await();
+                                return metadataSystem.lookupType(typeName).resolve();
+                            }
+                        }
+                    )
+                );
+            }
+
+            start.countDown();
+
+            final TypeDefinition first = results.get(0).get();
+
+            assertNotNull(first);
+
+            for (final Future<TypeDefinition> result : results) {
+                assertSame(first, result.get());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, typeLoader.loadCount.get());
+        assertEquals(threadCount - 1, metadataSystem.getSharedTypeLoadCount());
+    }
+
+    @Test
+    public void testInterruptedWaiterStopsWaiting() throws Throwable {
+        final String typeName = SampleType.class.getName().replace('.', '/');
+        final SlowTypeLoader typeLoader = new SlowTypeLoader(typeName);
+        final MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicReference<Throwable> waiterError = new AtomicReference<>();
+        final AtomicReference<Boolean> waiterInterrupted = new AtomicReference<>();
+
+        try {
+            final Future<TypeDefinition> owner = executor.submit(
+                new Callable<TypeDefinition>() {
+                    @Override
+                    public TypeDefinition call() throws Exception {
+                        return metadataSystem.lookupType(typeName).resolve();
+                    }
+                }
+            );
+
+            typeLoader.loadStarted.await();
+
+            final Thread waiter = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        metadataSystem.lookupType(typeName).resolve();
+                    }
+                    catch (final Throwable t) {
+                        waiterError.set(t);
+                    }
+                    waiterInterrupted.set(isInterrupted());
+                }
+            };
+
+            waiter.start();
+            waiter.interrupt();
+            waiter.join();
+
+            assertTrue(waiterError.get() instanceof UndeclaredThrowableException);
+            assertTrue(waiterError.get().getCause() instanceof InterruptedException);
+            assertTrue(waiterInterrupted.get());
+            assertNotNull(owner.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, typeLoader.loadCount.get());
+    }
+
+    @Test
+    public void testMissingTypesAreNotProbedAgain() throws Throwable {
+        final String typeName = SampleType.class.getName().replace('.', '/');
+        final SlowTypeLoader typeLoader = new SlowTypeLoader(typeName);
+        final MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
+
+        metadataSystem.setMissingTypeCachingEnabled(true);
+        typeLoader.isHidden = true;
+
+        for (int i = 0; i < 3; i++) {
+            assertNull(metadataSystem.lookupType(typeName));
+        }
+
+        assertEquals(1, typeLoader.loadCount.get());
+        assertEquals(1, metadataSystem.getMissingTypeCount());
+        assertEquals(2, metadataSystem.getSuppressedLookupCount());
+
+        final TypeDefinition definition = new MetadataSystem().lookupType(typeName).resolve();
+
+        assertNotNull(definition);
+
+        metadataSystem.addTypeDefinition(definition);
+
+        assertEquals(0, metadataSystem.getMissingTypeCount());
+        assertSame(definition, metadataSystem.lookupType(typeName).resolve());
+        assertEquals(1, typeLoader.loadCount.get());
+    }
+
+    @Test
+    public void testLazyMembersMatchEagerMembers() throws Throwable {
+        final String typeName = SampleType.class.getName().replace('.', '/');
+        final MetadataSystem lazySystem = new MetadataSystem();
+
+        lazySystem.setLazyMemberLoadingEnabled(true);
+
+        final TypeDefinition lazyType = lazySystem.lookupType(typeName).resolve();
+        final TypeDefinition eagerType = new MetadataSystem().lookupType(typeName).resolve();
+
+        assertNotNull(lazyType);
+        assertNotNull(eagerType);
+
+        assertEquals(eagerType.getDeclaredFields().size(), lazyType.getDeclaredFields().size());
+        assertEquals(eagerType.getDeclaredMethods().size(), lazyType.getDeclaredMethods().size());
+
+        for (int i = 0; i < eagerType.getDeclaredMethods().size(); i++) {
+            final MethodDefinition expected = eagerType.getDeclaredMethods().get(i);
+            final MethodDefinition actual = lazyType.getDeclaredMethods().get(i);
+
+            assertEquals(expected.getFullName() + expected.getErasedSignature(), actual.getFullName() + actual.getErasedSignature());
+            assertSame(lazyType, actual.getDeclaringType());
+            assertNotNull(actual.getBody());
+        }
+    }
+
+    @Test
+    public void testConcurrentMemberAccessPublishesMembersOnce() throws Throwable {
+        final String typeName = MetadataSystem.class.getName().replace('.', '/');
+        final MetadataSystem lazySystem = new MetadataSystem();
+
+        lazySystem.setLazyMemberLoadingEnabled(true);
+
+        final TypeDefinition lazyType = lazySystem.lookupType(typeName).resolve();
+        final TypeDefinition eagerType = new MetadataSystem().lookupType(typeName).resolve();
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            final List<Future<List<MethodDefinition>>> results = new ArrayList<>();
+
+            for (int i = 0; i < threadCount; i++) {
+                results.add(
+                    executor.submit(
+                        new Callable<List<MethodDefinition>>() {
+                            @Override
+                            public List<MethodDefinition> call() throws Exception {
+                                start.await();
+                                return new ArrayList<>(lazyType.getDeclaredMethods());
+                            }
+                        }
+                    )
+                );
+            }
+
+            start.countDown();
+
+            for (final Future<List<MethodDefinition>> result : results) {
+                assertEquals(eagerType.getDeclaredMethods().size(), result.get().size());
+                assertEquals(lazyType.getDeclaredMethods(), result.get());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEagerBodiesMatchLazyBodies() throws Throwable {
+        final String typeName = SampleType.class.getName().replace('.', '/');
+        final MetadataSystem eagerSystem = new MetadataSystem();
+
+        eagerSystem.setEagerMethodLoadingEnabled(true);
+
+        final TypeDefinition eagerType = eagerSystem.lookupType(typeName).resolve();
+        final TypeDefinition lazyType = new MetadataSystem().lookupType(typeName).resolve();
+
+        assertEquals(lazyType.getDeclaredMethods().size(), eagerType.getDeclaredMethods().size());
+
+        for (int i = 0; i < lazyType.getDeclaredMethods().size(); i++) {
+            final MethodBody expected = lazyType.getDeclaredMethods().get(i).getBody();
+            final MethodBody actual = eagerType.getDeclaredMethods().get(i).getBody();
+
+            assertNotNull(actual);
+            assertEquals(expected.getInstructions().size(), actual.getInstructions().size());
+            assertEquals(expected.getMaxStackSize(), actual.getMaxStackSize());
+            assertSame(actual, eagerType.getDeclaredMethods().get(i).getBody());
+        }
+    }
+
+    @Test
+    public void testBudgetedBodiesAreReleasedAndReloaded() throws Throwable {
+        final MetadataSystem metadataSystem = new MetadataSystem();
+
+        metadataSystem.setMethodBodyRetention(MethodBodyRetention.BUDGETED);
+        metadataSystem.setMethodBodyBudget(1);
+
+        final TypeDefinition type = metadataSystem.lookupType(SampleType.class.getName().replace('.', '/')).resolve();
+        final MethodDefinition first = type.getDeclaredMethods().get(0);
+        final MethodDefinition second = type.getDeclaredMethods().get(1);
+
+        assertNotNull(first.getBody());
+        assertTrue(first.hasBody());
+
+        //
+        // The budget only has room for one body, so loading the second releases the first.
+        //
+        assertNotNull(second.getBody());
+        assertTrue(second.hasBody());
+        assertFalse(first.hasBody());
+        assertEquals(1, metadataSystem.getMethodBodyEvictionCount());
+
+        assertNotNull(first.getBody());
+        assertEquals(3, metadataSystem.getMethodBodyLoadCount());
+        assertEquals(1, metadataSystem.getMethodBodyReloadCount());
+
+        metadataSystem.setMethodBodyRetention(MethodBodyRetention.STRONG);
+
+        assertFalse(first.hasBody());
+        assertEquals(0, metadataSystem.getMethodBodyCacheSize());
+        assertNotNull(first.getBody());
+        assertTrue(first.hasBody());
+    }
+
+    @Test
+    public void testLocalTypesAreLinkedToEnclosingMethods() throws Throwable {
+        final MetadataSystem metadataSystem = new MetadataSystem();
+
+        metadataSystem.setLazyMemberLoadingEnabled(true);
+
+        final String hostName = LocalTypeHost.class.getName().replace('.', '/');
+        final Object localInstance = new LocalTypeHost().createLocal();
+        final String localName = localInstance.getClass().getName().replace('.', '/');
+
+        final TypeDefinition localType = metadataSystem.lookupType(localName).resolve();
+
+        assertNotNull(localType);
+        assertTrue(localType.isLocalClass());
+
+        final MethodReference declaringMethod = localType.getDeclaringMethod();
+
+        assertTrue(declaringMethod instanceof MethodDefinition);
+        assertEquals("createLocal", declaringMethod.getName());
+        assertTrue(((MethodDefinition) declaringMethod).getDeclaredTypes().contains(localType));
+
+        //
+        // Now start from the other direction: the host's method should find its local type
+        // without anyone having asked the local type for its declaring method.
+        //
+        final MetadataSystem otherSystem = new MetadataSystem();
+        final TypeDefinition hostType = otherSystem.lookupType(hostName).resolve();
+
+        MethodDefinition createLocal = null;
+
+        for (final MethodDefinition method : hostType.getDeclaredMethods()) {
+            if ("createLocal".equals(method.getName())) {
+                createLocal = method;
+            }
+        }
+
+        assertNotNull(createLocal);
+        assertEquals(1, createLocal.getDeclaredTypes().size());
+        assertEquals(localName, createLocal.getDeclaredTypes().get(0).getInternalName());
+    }
+
+    @Test
+    public void testConcurrentLinkageLinksLocalTypesOnce() throws Throwable {
+        final MetadataSystem metadataSystem = new MetadataSystem();
+        final String localName = new LocalTypeHost().createLocal().getClass().getName().replace('.', '/');
+        final TypeDefinition localType = metadataSystem.lookupType(localName).resolve();
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            final List<Future<MethodReference>> results = new ArrayList<>();
+
+            for (int i = 0; i < threadCount; i++) {
+                results.add(
+                    executor.submit(
+                        new Callable<MethodReference>() {
+                            @Override
+                            public MethodReference call() throws Exception {
+                                start.await();
+                                return localType.getDeclaringMethod();
+                            }
+                        }
+                    )
+                );
+            }
+
+            start.countDown();
+
+            final MethodReference declaringMethod = results.get(0).get();
+
+            assertTrue(declaringMethod instanceof MethodDefinition);
+
+            for (final Future<MethodReference> result : results) {
+                assertSame(declaringMethod, result.get());
+            }
+
+            int count = 0;
+
+            for (final TypeDefinition type : ((MethodDefinition) declaringMethod).getDeclaredTypes()) {
+                if (type == localType) {
+                    ++count;
+                }
+            }
+
+            assertEquals(1, count);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExplicitClassPathLoadsOnlyIndexedEntries() throws Throwable {
+        final File location = new File(MetadataSystemTests.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        final MetadataSystem metadataSystem = new MetadataSystem(location.getPath() + File.pathSeparator + "does-not-exist.jar");
+
+        final String typeName = SampleType.class.getName().replace('.', '/');
+        final TypeReference sampleType = metadataSystem.lookupType(typeName);
+
+        assertNotNull(sampleType);
+        assertNotNull(sampleType.resolve());
+        assertNotNull(metadataSystem.lookupType("java/lang/String"));
+
+        //
+        // The main classes are on the class path of the running JVM, but not on the one we asked for.
+        //
+        assertNull(metadataSystem.lookupType(MetadataSystem.class.getName().replace('.', '/')));
+    }
+
+    @Test
+    public void testExplicitClassPathJarsAreClosed() throws Throwable {
+        final String typeName = SampleType.class.getName().replace('.', '/');
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (final JarOutputStream jar = new JarOutputStream(bytes);
+             final InputStream classFile = SampleType.class.getResourceAsStream("/" + typeName + ".class")) {
+
+            final byte[] data = new byte[4096];
+
+            jar.putNextEntry(new JarEntry(typeName + ".class"));
+
+            for (int n = classFile.read(data); n > 0; n = classFile.read(data)) {
+                jar.write(data, 0, n);
+            }
+
+            jar.closeEntry();
+        }
+
+        final File file = File.createTempFile("procyon", ".jar");
+
+        file.deleteOnExit();
+
+        try {
+            Files.write(file.toPath(), bytes.toByteArray());
+
+            final ClasspathTypeLoader loader = new ClasspathTypeLoader(file.getPath());
+
+            assertTrue(loader.tryLoadType(typeName, new Buffer()));
+
+            loader.close();
+
+            try {
+                loader.tryLoadType(typeName, new Buffer());
+                fail("Expected IllegalStateException.");
+            }
+            catch (final IllegalStateException ignored) {
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMappedJarTypeLoaderChecksArchiveBounds() throws Throwable {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (final JarOutputStream jar = new JarOutputStream(bytes)) {
+            jar.putNextEntry(new JarEntry("sample/Type.class"));
+            jar.write(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE });
+            jar.closeEntry();
+        }
+
+        final byte[] archive = bytes.toByteArray();
+        final File file = File.createTempFile("procyon", ".jar");
+        final File corruptFile = File.createTempFile("procyon", ".jar");
+
+        file.deleteOnExit();
+        corruptFile.deleteOnExit();
+
+        try {
+            Files.write(file.toPath(), archive);
+
+            final MappedJarTypeLoader loader = new MappedJarTypeLoader(file);
+
+            assertTrue(loader.tryLoadType("sample/Type", new Buffer()));
+
+            loader.close();
+
+            try {
+                loader.tryLoadType("sample/Type", new Buffer());
+                fail("Expected IllegalStateException.");
+            }
+            catch (final IllegalStateException ignored) {
+            }
+
+            //
+            // Point the central directory entry's local header offset past the end of the archive.
+            //
+            final ByteBuffer b = ByteBuffer.wrap(archive).order(ByteOrder.LITTLE_ENDIAN);
+            final int directoryOffset = b.getInt(archive.length - 22 + 16);
+
+            b.putInt(directoryOffset + 42, archive.length);
+            Files.write(corruptFile.toPath(), archive);
+
+            try {
+                new MappedJarTypeLoader(corruptFile);
+                fail("Expected ZipException.");
+            }
+            catch (final ZipException ignored) {
+            }
+        }
+        finally {
+            file.delete();
+            corruptFile.delete();
+        }
+    }
+
+    @Test
+    public void testEvictionSparesWorkingSetsAndCachedRelations() throws Throwable {
+        final MetadataSystem metadataSystem = new MetadataSystem();
+        final List<String> otherTypeNames = findTopLevelTypeNames(MetadataSystem.class);
+
+        otherTypeNames.remove(MetadataSystem.class.getName().replace('.', '/'));
+        otherTypeNames.remove(MetadataResolver.class.getName().replace('.', '/'));
+
+        assertTrue(otherTypeNames.size() > 80);
+
+        metadataSystem.setTypeCacheBudget(1);
+        metadataSystem.pushWorkingSet();
+
+        final TypeDefinition type = metadataSystem.lookupType(MetadataSystem.class.getName().replace('.', '/')).resolve();
+        final TypeDefinition baseType = metadataSystem.lookupType(MetadataResolver.class.getName().replace('.', '/')).resolve();
+
+        assertTrue(MetadataHelper.isSubType(type, baseType));
+
+        //
+        // Load enough other types on another thread to force evictions.
+        //
+        final Thread loader = new Thread() {
+            @Override
+            public void run() {
+                for (final String typeName : otherTypeNames) {
+                    metadataSystem.lookupType(typeName).resolve();
+                }
+            }
+        };
+
+        loader.start();
+        loader.join();
+
+        assertTrue(metadataSystem.getEvictedTypeCount() > 0);
+        assertFalse(type.isEvicted());
+        assertSame(type, metadataSystem.lookupType(type.getInternalName()).resolve());
+
+        final long hitCount = metadataSystem.getTypeRelationCacheHitCount();
+
+        assertTrue(MetadataHelper.isSubType(type, baseType));
+        assertEquals(hitCount + 1, metadataSystem.getTypeRelationCacheHitCount());
+
+        //
+        // Once the working set is gone, our types may be evicted like any others.
+        //
+        metadataSystem.popWorkingSet();
+
+        for (final String typeName : otherTypeNames) {
+            metadataSystem.lookupType(typeName).resolve();
+        }
+
+        assertTrue(type.isEvicted());
+        assertNotSame(type, metadataSystem.lookupType(type.getInternalName()).resolve());
+    }
+
+    @Test
+    public void testLoadStatisticsAreRecorded() throws Throwable {
+        final InstrumentedTypeLoader typeLoader = new InstrumentedTypeLoader("class path", new ClasspathTypeLoader());
+        final MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
+
+        metadataSystem.setMissingTypeCachingEnabled(true);
+
+        assertNotNull(metadataSystem.lookupType(SampleType.class.getName().replace('.', '/')).resolve());
+        assertNull(metadataSystem.lookupType("com/strobel/DoesNotExist"));
+        assertNull(metadataSystem.lookupType("com/strobel/DoesNotExist"));
+
+        final TypeLoaderStatistics loaderStatistics = typeLoader.getStatistics();
+        final MetadataSystemStatistics statistics = metadataSystem.getStatistics();
+
+        assertEquals("class path", loaderStatistics.getName());
+        assertEquals(statistics.getTypeLoadCount(), loaderStatistics.getHitCount());
+        assertEquals(1, loaderStatistics.getMissCount());
+        assertEquals(statistics.getBytesLoaded(), loaderStatistics.getBytesRead());
+        assertEquals(1, statistics.getSuppressedLookupCount());
+        assertTrue(statistics.getBytesLoaded() > 0);
+        assertTrue(statistics.getClassReaderNanos() > 0);
+        assertTrue(statistics.getTypeLoaderNanos() > 0);
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="Helper Classes">
+
+    private static List<String> findTopLevelTypeNames(final Class<?> neighbor) throws Exception {
+        final String packagePath = neighbor.getPackage().getName().replace('.', '/') + "/";
+        final File location = new File(neighbor.getProtectionDomain().getCodeSource().getLocation().toURI());
+        final List<String> typeNames = new ArrayList<>();
+
+        if (location.isDirectory()) {
+            final String[] fileNames = new File(location, packagePath).list();
+
+            if (fileNames != null) {
+                for (final String fileName : fileNames) {
+                    if (fileName.endsWith(".class") && fileName.indexOf('$') < 0) {
+                        typeNames.add(packagePath + fileName.substring(0, fileName.length() - ".class".length()));
+                    }
+                }
+            }
+        }
+        else {
+            try (final JarFile jar = new JarFile(location)) {
+                for (final Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                    final String name = entries.nextElement().getName();
+
+                    if (name.startsWith(packagePath) &&
+                        name.endsWith(".class") &&
+                        name.indexOf('/', packagePath.length()) < 0 &&
+                        name.indexOf('$') < 0) {
+
+                        typeNames.add(name.substring(0, name.length() - ".class".length()));
+                    }
+                }
+            }
+        }
+
+        return typeNames;
+    }
+
+    private static final class SlowTypeLoader implements ITypeLoader {
+        final ITypeLoader delegate = new ClasspathTypeLoader();
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final String slowTypeName;
+        volatile boolean isHidden;
+
+        SlowTypeLoader(final String slowTypeName) {
+            this.slowTypeName = slowTypeName;
+        }
+
+        @Override
+        public boolean tryLoadType(final String internalName, final Buffer buffer) {
+            if (slowTypeName.equals(internalName)) {
+                loadCount.incrementAndGet();
+                loadStarted.countDown();
+
+                if (isHidden) {
+                    return false;
+                }
+
+                try {
+                    Thread.sleep(250);
+                }
+                catch (final InterruptedException ignored) {
+                }
+            }
+
+            return delegate.tryLoadType(internalName, buffer);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static final class SampleType {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final class LocalTypeHost {
+        Object createLocal() {
+            return new Object() {
+                @Override
+                public String toString() {
+                    return "local";
+                }
+            };
+        }
+    }
+
+    // </editor-fold>
+}
@@ -0,0 +1,56 @@
+package com.strobel.decompiler.ast;
+
+import com.strobel.assembler.metadata.MethodDefinition;
+import com.strobel.decompiler.DecompilerContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reports how much building the AST of a long run of straight-line code allocates.  This covers
+ * all of {@link AstBuilder#build}, not just stack analysis, and there is no stored baseline; to see
+ * the effect of a change, run it before and after.  This is not a unit test, so the test task does
+ * not run it; run {@link #main} by hand.
+ */
+public final class AstBuilderBenchmark {
+    private final static int WARM_UP_RUNS = 50;
+    private final static int MEASURED_RUNS = 200;
+
+    public static void main(final String... args) {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean) ||
+            !((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+
+            System.err.println("This JVM cannot measure per-thread allocations.");
+            return;
+        }
+
+        final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        final long threadId = Thread.currentThread().getId();
+        final MethodDefinition method = AstBuilderTests.findStraightLineMethod();
+        final DecompilerContext context = AstBuilderTests.createContext(method);
+
+        long allocatedBytes = 0L;
+
+        for (int i = 0; i < WARM_UP_RUNS + MEASURED_RUNS; i++) {
+            final long before = allocationBean.getThreadAllocatedBytes(threadId);
+
+            AstBuilder.build(method.getBody(), false, context);
+
+            final long after = allocationBean.getThreadAllocatedBytes(threadId);
+
+            if (i >= WARM_UP_RUNS) {
+                allocatedBytes += after - before;
+            }
+        }
+
+        System.out.printf(
+            "Building the AST of %s.%s allocated %d KB per run (average of %d runs).%n",
+            method.getDeclaringType().getSimpleName(),
+            method.getName(),
+            allocatedBytes / MEASURED_RUNS / 1024,
+            MEASURED_RUNS
+        );
+    }
+}
@@ -0,0 +1,220 @@
+package com.strobel.decompiler.ast;
+
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.MethodDefinition;
+import com.strobel.assembler.metadata.TypeDefinition;
+import com.strobel.decompiler.DecompilerContext;
+import com.strobel.decompiler.DecompilerSettings;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AstBuilderTests {
+    private static class StraightLineCode {
+        public static long test(final int n) {
+            long a = n;
+            long b = a + 1;
+            long c = b + 2;
+            long d = c + 3;
+            long e = d + 4;
+            long f = e + 5;
+            long g = f + 6;
+            long h = g + 7;
+            long j = h + 8;
+            long k = j + 9;
+            long m = k + 10;
+            long p = m + 11;
+
+            for (int i = 0; i < n; i++) {
+                a = b * 3 + f - (h >> 1);
+                b = c * 4 + g - (j >> 2);
+                c = d * 5 + h - (k >> 3);
+                d = e * 6 + j - (m >> 4);
+                e = f * 7 + k - (p >> 5);
+                f = g * 8 + m - (a >> 6);
+                g = h * 9 + p - (b >> 7);
+                h = j * 10 + a - (c >> 1);
+                j = k * 11 + b - (d >> 2);
+                k = m * 12 + c - (e >> 3);
+                m = p * 13 + d - (f >> 4);
+                p = a * 14 + e - (g >> 5);
+                a = b * 15 + f - (h >> 6);
+                b = c * 16 + g - (j >> 7);
+                c = d * 17 + h - (k >> 1);
+                d = e * 18 + j - (m >> 2);
+                e = f * 19 + k - (p >> 3);
+                f = g * 20 + m - (a >> 4);
+                g = h * 21 + p - (b >> 5);
+                h = j * 22 + a - (c >> 6);
+                j = k * 23 + b - (d >> 7);
+                k = m * 24 + c - (e >> 1);
+                m = p * 25 + d - (f >> 2);
+                p = a * 26 + e - (g >> 3);
+                a = b * 27 + f - (h >> 4);
+                b = c * 28 + g - (j >> 5);
+                c = d * 29 + h - (k >> 6);
+                d = e * 30 + j - (m >> 7);
+                e = f * 31 + k - (p >> 1);
+                f = g * 32 + m - (a >> 2);
+                g = h * 33 + p - (b >> 3);
+                h = j * 34 + a - (c >> 4);
+                j = k * 35 + b - (d >> 5);
+                k = m * 36 + c - (e >> 6);
+                m = p * 37 + d - (f >> 7);
+                p = a * 38 + e - (g >> 1);
+                a = b * 39 + f - (h >> 2);
+                b = c * 40 + g - (j >> 3);
+                c = d * 41 + h - (k >> 4);
+                d = e * 42 + j - (m >> 5);
+                e = f * 43 + k - (p >> 6);
+                f = g * 44 + m - (a >> 7);
+                g = h * 45 + p - (b >> 1);
+                h = j * 46 + a - (c >> 2);
+                j = k * 47 + b - (d >> 3);
+                k = m * 48 + c - (e >> 4);
+                m = p * 49 + d - (f >> 5);
+                p = a * 50 + e - (g >> 6);
+                a = b * 51 + f - (h >> 7);
+                b = c * 52 + g - (j >> 1);
+                c = d * 53 + h - (k >> 2);
+                d = e * 54 + j - (m >> 3);
+                e = f * 55 + k - (p >> 4);
+                f = g * 56 + m - (a >> 5);
+                g = h * 57 + p - (b >> 6);
+                h = j * 58 + a - (c >> 7);
+                j = k * 59 + b - (d >> 1);
+                k = m * 60 + c - (e >> 2);
+                m = p * 61 + d - (f >> 3);
+                p = a * 62 + e - (g >> 4);
+            }
+
+            return a + b + c + d + e + f + g + h + j + k + m + p;
+        }
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static class BranchingCode {
+        public static int test(final int n, final int[] values) {
+            int t;
+            int x;
+            int y;
+
+            if (n > 0) {
+                x = 1;
+                y = n;
+                t = n * 2;
+                sink(t);
+            }
+            else {
+                x = 2;
+                y = -n;
+                t = n * 3;
+                sink(t);
+            }
+
+            int sum = x;
+
+            for (int i = 0; i < values.length; i++) {
+                switch (values[i]) {
+                    case 0:
+                    case 1:
+                        sum += y;
+                        break;
+                    case 2:
+                    case 3:
+                        y = sum;
+                        break;
+                    default:
+                        sum--;
+                        break;
+                }
+            }
+
+            return sum + (n > 0 ? y : x);
+        }
+
+        private static void sink(final int value) {
+        }
+    }
+
+    @Test
+    public void testVariablesMergeOnlyWhereControlFlowJoins() {
+        final MethodDefinition method = findMethod(BranchingCode.class, "test");
+        final List<Node> ast = AstBuilder.build(method.getBody(), true, createContext(method));
+
+
+        //
+        // Each branch stores 't' and loads it back before the branches join, so each load sees
+        // only its own branch's store, and 't' splits in two.  Stack analysis shares one variable
+        // state between consecutive bytecodes until something is stored; if merging the other
+        // branch's state at the join (or over the loop's back edge, or into the switch's shared
+        // targets) wrote through to a shared state, the loads would see both stores and the two
+        // would become one variable.
+        //
+        assertEquals(2, variablesNamed(ast, "t").size());
+
+        //
+        // Both stores of 'x' reach the loads after the join.  The loads of 'y' in the loop see
+        // the stores from both branches and the one in the loop itself, by way of the back edge.
+        //
+        assertEquals(1, variablesNamed(ast, "x").size());
+        assertEquals(1, variablesNamed(ast, "y").size());
+        assertEquals(1, variablesNamed(ast, "sum").size());
+    }
+
+    @Test
+    public void testStraightLineCode() {
+        final MethodDefinition method = findStraightLineMethod();
+        final List<Node> ast = AstBuilder.build(method.getBody(), false, createContext(method));
+
+        assertFalse(ast.isEmpty());
+    }
+
+    static MethodDefinition findStraightLineMethod() {
+        return findMethod(StraightLineCode.class, "test");
+    }
+
+    private static MethodDefinition findMethod(final Class<?> declaringClass, final String name) {
+        final TypeDefinition type = new MetadataSystem().lookupType(declaringClass.getName().replace('.', '/')).resolve();
+
+        for (final MethodDefinition method : type.getDeclaredMethods()) {
+            if (name.equals(method.getName())) {
+                return method;
+            }
+        }
+
+        fail("Could not find " + declaringClass.getSimpleName() + '.' + name + "().");
+        return null;
+    }
+
+    private static List<Variable> variablesNamed(final List<Node> ast, final String name) {
+        final List<Variable> variables = new ArrayList<>();
+
+        for (final Node node : ast) {
+            for (final Expression e : node.getSelfAndChildrenRecursive(Expression.class)) {
+                if (e.getOperand() instanceof Variable) {
+                    final Variable variable = (Variable) e.getOperand();
+
+                    if (name.equals(variable.getName()) && !variables.contains(variable)) {
+                        variables.add(variable);
+                    }
+                }
+            }
+        }
+
+        return variables;
+    }
+
+
+    static DecompilerContext createContext(final MethodDefinition method) {
+        final DecompilerContext context = new DecompilerContext(new DecompilerSettings());
+
+        context.setCurrentType(method.getDeclaringType());
+        context.setCurrentMethod(method);
+
+        return context;
+    }
+}
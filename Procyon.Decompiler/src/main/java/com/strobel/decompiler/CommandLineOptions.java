@@ -160,6 +160,30 @@ public class CommandLineOptions {
         description = "Enable eager loading of method bodies (may speed up decompilation of larger archives).")
     private boolean _isEagerMethodLoadingEnabled;
 
+    @Parameter(
+        names = { "-lml", "--lazy-member-loading" },
+        description = "Read the fields and methods of each type only when they are first needed (may speed up " +
+                      "decompilation of larger archives).")
+    private boolean _isLazyMemberLoadingEnabled;
+
+    @Parameter(
+        names = { "-t", "--threads" },
+        description = "Number of threads to use when decompiling jar files (only in combination with -o).",
+        arity = 1)
+    private int _threadCount = 1;
+
+    @Parameter(
+        names = { "-li", "--location-index" },
+        description = "Remember where input class files were found in the specified file, and reuse those " +
+                      "locations on later runs instead of searching the file system again.",
+        arity = 1)
+    private String _locationIndexFile;
+
+    @Parameter(
+        names = { "-st", "--statistics" },
+        description = "When finished, print type loading times and cache statistics to the error stream.")
+    private boolean _printStatistics;
+
     @Parameter(
         names = { "-sm", "--simplify-member-references" },
         description = "Simplify type-qualified member references in Java output [EXPERIMENTAL].")
@@ -375,6 +399,38 @@ public class CommandLineOptions {
         _isEagerMethodLoadingEnabled = isEagerMethodLoadingEnabled;
     }
 
+    public final boolean isLazyMemberLoadingEnabled() {
+        return _isLazyMemberLoadingEnabled;
+    }
+
+    public final void setLazyMemberLoadingEnabled(final boolean isLazyMemberLoadingEnabled) {
+        _isLazyMemberLoadingEnabled = isLazyMemberLoadingEnabled;
+    }
+
+    public final int getThreadCount() {
+        return _threadCount;
+    }
+
+    public final void setThreadCount(final int threadCount) {
+        _threadCount = threadCount;
+    }
+
+    public final String getLocationIndexFile() {
+        return _locationIndexFile;
+    }
+
+    public final void setLocationIndexFile(final String locationIndexFile) {
+        _locationIndexFile = locationIndexFile;
+    }
+
+    public final boolean getPrintStatistics() {
+        return _printStatistics;
+    }
+
+    public final void setPrintStatistics(final boolean printStatistics) {
+        _printStatistics = printStatistics;
+    }
+
     public final boolean getSimplifyMemberReferences() {
         return _simplifyMemberReferences;
     }
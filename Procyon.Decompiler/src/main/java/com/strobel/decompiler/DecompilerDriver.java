@@ -16,21 +16,26 @@ import com.strobel.decompiler.languages.TypeDecompilationResults;
 import com.strobel.decompiler.languages.java.JavaFormattingOptions;
 import com.strobel.io.PathHelper;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.logging.ConsoleHandler;
@@ -41,6 +46,12 @@ import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 public class DecompilerDriver {
+    //
+    // Bytes of class file data to keep cached while decompiling an entire jar; beyond this,
+    // least recently used types are evicted (core JDK types are never evicted).
+    //
+    private final static long TYPE_CACHE_BUDGET = 32L * 1024 * 1024;
+
     public static void main(final String[] args) {
         final CommandLineOptions options = new CommandLineOptions();
         final JCommander jCommander;
@@ -95,7 +106,16 @@ public class DecompilerDriver {
         settings.setSimplifyMemberReferences(options.getSimplifyMemberReferences());
         settings.setForceFullyQualifiedReferences(options.getForceFullyQualifiedReferences());
         settings.setDisableForEachTransforms(options.getDisableForEachTransforms());
-        settings.setTypeLoader(new InputTypeLoader());
+
+        final LoadStatistics statistics = options.getPrintStatistics() ? new LoadStatistics() : null;
+        final ITypeLoader classpathTypeLoader = instrument(statistics, "class path", new ClasspathTypeLoader());
+        final String locationIndexFile = options.getLocationIndexFile();
+
+        final InputTypeLoader inputTypeLoader = StringUtilities.isNullOrWhitespace(locationIndexFile)
+                                                ? new InputTypeLoader(classpathTypeLoader)
+                                                : new InputTypeLoader(classpathTypeLoader, new File(locationIndexFile));
+
+        settings.setTypeLoader(instrument(statistics, "input", inputTypeLoader));
 
         if (!options.getSuppressBanner()) {
             settings.setOutputFileHeaderText("\nDecompiled by Procyon v" + Procyon.version() + "\n");
@@ -123,7 +143,7 @@ public class DecompilerDriver {
 
         if (decompileJar) {
             try {
-                decompileJar(jarFile, options, decompilationOptions);
+                decompileJar(jarFile, options, decompilationOptions, statistics);
             }
             catch (final Throwable t) {
                 System.err.println(ExceptionUtilities.getMessage(t));
@@ -134,11 +154,12 @@ public class DecompilerDriver {
             final MetadataSystem metadataSystem = new NoRetryMetadataSystem(settings.getTypeLoader());
 
             metadataSystem.setEagerMethodLoadingEnabled(options.isEagerMethodLoadingEnabled());
+            metadataSystem.setLazyMemberLoadingEnabled(options.isLazyMemberLoadingEnabled());
 
             for (final String typeName : typeNames) {
                 try {
                     if (typeName.endsWith(".jar")) {
-                        decompileJar(typeName, options, decompilationOptions);
+                        decompileJar(typeName, options, decompilationOptions, statistics);
                     }
                     else {
                         decompileType(metadataSystem, typeName, options, decompilationOptions, true);
@@ -148,9 +169,23 @@ public class DecompilerDriver {
                     t.printStackTrace();
                 }
             }
+
+            if (statistics != null) {
+                statistics.record("types", metadataSystem);
+            }
+        }
+
+        inputTypeLoader.saveLocationIndex();
+
+        if (statistics != null) {
+            statistics.print(System.err);
         }
     }
 
+    private static ITypeLoader instrument(final LoadStatistics statistics, final String name, final ITypeLoader typeLoader) {
+        return statistics != null ? statistics.instrument(name, typeLoader) : typeLoader;
+    }
+
     private static BytecodeOutputOptions createBytecodeFormattingOptions(final CommandLineOptions options) {
         if (options.isVerbose()) {
             return BytecodeOutputOptions.createVerbose();
@@ -212,7 +247,8 @@ public class DecompilerDriver {
     private static void decompileJar(
         final String jarFilePath,
         final CommandLineOptions options,
-        final DecompilationOptions decompilationOptions) throws IOException {
+        final DecompilationOptions decompilationOptions,
+        final LoadStatistics statistics) throws IOException {
 
         final File jarFile = new File(jarFilePath);
 
@@ -226,16 +262,29 @@ public class DecompilerDriver {
 
         final boolean oldShowSyntheticMembers = settings.getShowSyntheticMembers();
         final ITypeLoader oldTypeLoader = settings.getTypeLoader();
+        final ITypeLoader jarTypeLoader = createJarTypeLoader(jarFile, jar);
 
         settings.setShowSyntheticMembers(false);
-        settings.setTypeLoader(new CompositeTypeLoader(new JarTypeLoader(jar), oldTypeLoader));
+        settings.setTypeLoader(
+            new CompositeTypeLoader(
+                instrument(statistics, jarFile.getName(), jarTypeLoader),
+                oldTypeLoader
+            )
+        );
 
-        try {
-            MetadataSystem metadataSystem = new NoRetryMetadataSystem(settings.getTypeLoader());
+        final MetadataSystem metadataSystem = new NoRetryMetadataSystem(settings.getTypeLoader());
 
+        try {
             metadataSystem.setEagerMethodLoadingEnabled(options.isEagerMethodLoadingEnabled());
+            metadataSystem.setLazyMemberLoadingEnabled(options.isLazyMemberLoadingEnabled());
+            metadataSystem.setTypeCacheBudget(TYPE_CACHE_BUDGET);
+
+            final int threadCount = options.getThreadCount();
 
-            int classesDecompiled = 0;
+            if (threadCount > 1 && !StringUtilities.isNullOrWhitespace(settings.getOutputDirectory())) {
+                decompileJarParallel(metadataSystem, entries, threadCount, options, decompilationOptions);
+                return;
+            }
 
             while (entries.hasMoreElements()) {
                 final JarEntry entry = entries.nextElement();
@@ -249,10 +298,6 @@ public class DecompilerDriver {
 
                 try {
                     decompileType(metadataSystem, internalName, options, decompilationOptions, false);
-
-                    if (++classesDecompiled % 100 == 0) {
-                        metadataSystem = new NoRetryMetadataSystem(settings.getTypeLoader());
-                    }
                 }
                 catch (final Throwable t) {
                     t.printStackTrace();
@@ -262,6 +307,86 @@ public class DecompilerDriver {
         finally {
             settings.setShowSyntheticMembers(oldShowSyntheticMembers);
             settings.setTypeLoader(oldTypeLoader);
+
+            if (statistics != null) {
+                statistics.record(jarFile.getName(), metadataSystem);
+            }
+
+            if (jarTypeLoader instanceof Closeable) {
+                ((Closeable) jarTypeLoader).close();
+            }
+        }
+    }
+
+    private static ITypeLoader createJarTypeLoader(final File jarFile, final JarFile jar) {
+        try {
+            return new MappedJarTypeLoader(jarFile);
+        }
+        catch (final IOException e) {
+            //
+            // Fall back to the slower loader for archives we cannot map or index ourselves
+            // (e.g., ZIP64 archives).
+            //
+            return new JarTypeLoader(jar);
+        }
+    }
+
+    private static void decompileJarParallel(
+        final MetadataSystem metadataSystem,
+        final Enumeration<JarEntry> entries,
+        final int threadCount,
+        final CommandLineOptions options,
+        final DecompilationOptions decompilationOptions) {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        final List<Future<?>> results = new ArrayList<>();
+
+        try {
+            while (entries.hasMoreElements()) {
+                final String name = entries.nextElement().getName();
+
+                if (!name.endsWith(".class")) {
+                    continue;
+                }
+
+                final String internalName = StringUtilities.removeRight(name, ".class");
+
+                results.add(
+                    executor.submit(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    decompileType(metadataSystem, internalName, options, decompilationOptions, false);
+                                }
+                                catch (final Throwable t) {
+                                    synchronized (System.err) {
+                                        System.err.printf("!!! ERROR: Failed to decompile class %s.\n", internalName);
+                                        t.printStackTrace();
+                                    }
+                                }
+                            }
+                        }
+                    )
+                );
+            }
+
+            for (final Future<?> result : results) {
+                try {
+                    result.get();
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                catch (final ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
         }
     }
 
@@ -272,6 +397,31 @@ public class DecompilerDriver {
         final DecompilationOptions options,
         final boolean includeNested) throws IOException {
 
+        //
+        // Keep every type this decompilation touches resident until it is done, whatever the
+        // type cache budget; other threads may be evicting types in the meantime.
+        //
+        metadataSystem.pushWorkingSet();
+
+        try {
+            decompileTypeCore(metadataSystem, typeName, commandLineOptions, options, includeNested);
+        }
+        finally {
+            metadataSystem.popWorkingSet();
+        }
+    }
+
+    private static boolean isNestedOrSynthetic(final TypeDefinition type) {
+        return type.isNested() || type.isAnonymous() || type.isSynthetic();
+    }
+
+    private static void decompileTypeCore(
+        final MetadataSystem metadataSystem,
+        final String typeName,
+        final CommandLineOptions commandLineOptions,
+        final DecompilationOptions options,
+        final boolean includeNested) throws IOException {
+
         final TypeReference type;
         final DecompilerSettings settings = options.getSettings();
 
@@ -296,9 +446,19 @@ public class DecompilerDriver {
             return;
         }
 
+        //
+        // Skip nested types before processing them; they are processed along with (and possibly
+        // at the same time as) their declaring types.  We check again afterwards, as processing
+        // may reveal a type to be nested, e.g., an anonymous enum constant body in an obfuscated
+        // class file.
+        //
+        if (!includeNested && isNestedOrSynthetic(resolvedType)) {
+            return;
+        }
+
         DeobfuscationUtilities.processType(resolvedType);
 
-        if (!includeNested && (resolvedType.isNested() || resolvedType.isAnonymous() || resolvedType.isSynthetic())) {
+        if (!includeNested && isNestedOrSynthetic(resolvedType)) {
             return;
         }
 
@@ -389,7 +549,7 @@ public class DecompilerDriver {
         final File outputFile = new File(outputPath);
         final File parentFile = outputFile.getParentFile();
 
-        if (parentFile != null && !parentFile.exists() && !parentFile.mkdirs()) {
+        if (parentFile != null && !parentFile.exists() && !parentFile.mkdirs() && !parentFile.isDirectory()) {
             throw new IllegalStateException(
                 String.format(
                     "Could not create output directory for file \"%s\".",
@@ -453,32 +613,49 @@ final class BriefLogFormatter extends Formatter {
     }
 }
 
-final class NoRetryMetadataSystem extends MetadataSystem {
-    private final Set<String> _failedTypes = new HashSet<>();
+final class LoadStatistics {
+    private final List<InstrumentedTypeLoader> _typeLoaders = new ArrayList<>();
+    private final List<String> _metadataLabels = new ArrayList<>();
+    private final List<MetadataSystemStatistics> _metadataStatistics = new ArrayList<>();
 
-    NoRetryMetadataSystem() {
+    ITypeLoader instrument(final String name, final ITypeLoader typeLoader) {
+        final InstrumentedTypeLoader instrumentedTypeLoader = new InstrumentedTypeLoader(name, typeLoader);
+        _typeLoaders.add(instrumentedTypeLoader);
+        return instrumentedTypeLoader;
     }
 
-//    NoRetryMetadataSystem(final String classPath) {
-//        super(classPath);
-//    }
-
-    NoRetryMetadataSystem(final ITypeLoader typeLoader) {
-        super(typeLoader);
+    void record(final String label, final MetadataSystem metadataSystem) {
+        _metadataLabels.add(label);
+        _metadataStatistics.add(metadataSystem.getStatistics());
     }
 
-    @Override
-    protected TypeDefinition resolveType(final String descriptor, final boolean mightBePrimitive) {
-        if (_failedTypes.contains(descriptor)) {
-            return null;
+    void print(final PrintStream out) {
+        out.println("Type loaders (times include nested loaders):");
+
+        for (final InstrumentedTypeLoader typeLoader : _typeLoaders) {
+            out.println("    " + typeLoader.getStatistics());
         }
 
-        final TypeDefinition result = super.resolveType(descriptor, mightBePrimitive);
+        out.println("Metadata:");
 
-        if (result == null) {
-            _failedTypes.add(descriptor);
+        for (int i = 0; i < _metadataStatistics.size(); i++) {
+            out.println("    " + _metadataLabels.get(i) + ": " + _metadataStatistics.get(i));
         }
+    }
+}
 
-        return result;
+final class NoRetryMetadataSystem extends MetadataSystem {
+    NoRetryMetadataSystem() {
+        setMissingTypeCachingEnabled(true);
+    }
+
+    NoRetryMetadataSystem(final String classPath) {
+        super(classPath);
+        setMissingTypeCachingEnabled(true);
+    }
+
+    NoRetryMetadataSystem(final ITypeLoader typeLoader) {
+        super(typeLoader);
+        setMissingTypeCachingEnabled(true);
     }
 }
\ No newline at end of file